@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.boundary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.EJB;
+import javax.enterprise.context.RequestScoped;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveFormat;
+import me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestBeanRemote;
+import me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestResult;
+
+/**
+ * Wczytywanie archiwum ZIP/TAR zawierającego wiele plików.
+ *
+ * Archiwum jest przekazywane strumieniowo do warstwy aplikacji, która je
+ * rozpakowuje i zapisuje pliki partiami.
+ *
+ * Gdy przesyłanie zostanie przerwane, partie zatwierdzone wcześniej pozostają
+ * w bazie, dlatego odpowiedź z błędem również zawiera {@link ArchiveIngestResult}
+ * z liczbą zapisanych plików. Niepoprawne archiwum daje odpowiedź 422, a
+ * błąd zapisu lub przerwane przesyłanie odpowiedź 500.
+ */
+@Path("files/ingest")
+@RequestScoped
+public class ArchiveIngestResource {
+
+    private static final Logger log = Logger.getLogger(ArchiveIngestResource.class.getName());
+
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    private static final int UNPROCESSABLE_ENTITY = 422;
+
+    @EJB(mappedName = "jndi:ext://app/ArchiveIngestBeanRemote")
+    ArchiveIngestBeanRemote ingestBean;
+
+    @POST
+    @Consumes({"application/zip", "application/x-tar"})
+    public ArchiveIngestResult ingestArchive(
+            InputStream dataStream,
+            @HeaderParam(HttpHeaders.CONTENT_TYPE) MediaType contentType) {
+        ArchiveFormat format = ArchiveFormat.forMediaType(
+                contentType.getType() + "/" + contentType.getSubtype());
+        ingestBean.init(format);
+        ArchiveIngestResult result;
+        try {
+            byte[] bufor = new byte[FileAttachmentResource.CHUNK_SIZE];
+            int length;
+            long nextProgress = PROGRESS_INTERVAL;
+            while ((length = FileAttachmentResource.readChunk(dataStream, bufor)) > 0) {
+                long entries = ingestBean.write(bufor, 0, length);
+                if (entries == ArchiveIngestBeanRemote.STOPPED) {
+                    // Dalsza część archiwum i tak nie zostałaby przetworzona.
+                    break;
+                }
+                if (entries >= nextProgress) {
+                    log.log(Level.INFO, "Przetworzono {0} plików archiwum", entries);
+                    nextProgress = entries + PROGRESS_INTERVAL;
+                }
+            }
+            result = ingestBean.close();
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.WARNING, "Wczytywanie archiwum", ex);
+            throw new WebApplicationException(abort(ex));
+        } finally {
+            try {
+                ingestBean.remove();
+            } catch (RuntimeException ex) {
+                log.log(Level.FINE, "Usuwanie komponentu", ex);
+            }
+        }
+        if (result.getOutcome() == ArchiveIngestResult.Outcome.COMPLETED) {
+            return result;
+        }
+        throw new WebApplicationException(Response
+                .status(result.getOutcome() == ArchiveIngestResult.Outcome.INVALID_ARCHIVE
+                        ? UNPROCESSABLE_ENTITY : Response.Status.INTERNAL_SERVER_ERROR.getStatusCode())
+                .type(MediaType.APPLICATION_XML_TYPE)
+                .entity(result)
+                .build());
+    }
+
+    private Response abort(final Exception cause) {
+        ArchiveIngestResult result;
+        try {
+            result = ingestBean.abort();
+        } catch (RuntimeException ex) {
+            // Komponent nie istnieje, liczba zapisanych plików jest nieznana.
+            log.log(Level.SEVERE, "Wycofywanie wczytywania archiwum", ex);
+            return Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .type(MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8"))
+                    .entity(cause.toString())
+                    .build();
+        }
+        if (result.getMessage() == null) {
+            result.setMessage(cause.toString());
+        }
+        return Response
+                .status(Response.Status.INTERNAL_SERVER_ERROR)
+                .type(MediaType.APPLICATION_XML_TYPE)
+                .entity(result)
+                .build();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.boundary;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.ejb.EJB;
+import javax.enterprise.context.RequestScoped;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentExportBeanRemote;
+import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
+import me.noip.ksmigrod.experiments.remotestatefull.utils.ApiUtils;
+import me.noip.ksmigrod.experiments.remotestatefull.utils.ContentDispositionCodec;
+
+/**
+ * Eksport wielu plików jako archiwum ZIP.
+ *
+ * Archiwum jest budowane w trakcie wysyłania odpowiedzi: zawartość każdego
+ * pliku jest przepisywana blok po bloku z warstwy aplikacji do strumienia ZIP,
+ * więc zużycie pamięci nie zależy od rozmiaru eksportu.
+ */
+@Path("files/export")
+@RequestScoped
+public class FileAttachmentExportResource {
+
+    private static final Logger log = Logger.getLogger(FileAttachmentExportResource.class.getName());
+
+    private static final String APPLICATION_ZIP = "application/zip";
+
+    private static final String DEFAULT_NAME = "export.zip";
+
+    @EJB(mappedName = "jndi:ext://app/FileAttachmentExportBeanRemote")
+    FileAttachmentExportBeanRemote exportBean;
+
+    @GET
+    @Produces(APPLICATION_ZIP)
+    public Response exportFileAttachments(
+            @QueryParam("ids") List<String> ids,
+            @QueryParam("name") @DefaultValue(DEFAULT_NAME) String name) {
+        // Puste "?name=" pomija wartość domyślną, a pusta nazwa pliku jest niepoprawna.
+        final String fileName = name == null || name.trim().isEmpty() ? DEFAULT_NAME : name;
+        final List<Long> fileIds;
+        try {
+            fileIds = parseIds(ids);
+            // Przed wysłaniem nagłówków, aby błąd dał właściwy kod odpowiedzi.
+            exportBean.init();
+        } catch (RuntimeException ex) {
+            removeBean();
+            throw ex;
+        }
+        StreamingOutput output = os -> {
+            DetachableOutputStream target = new DetachableOutputStream(os);
+            ZipOutputStream zip = new ZipOutputStream(target);
+            try {
+                for (long id : fileIds) {
+                    FileAttachment fa = exportBean.open(id);
+                    if (fa == null) {
+                        log.log(Level.WARNING, "Brak pliku {0}", id);
+                        continue;
+                    }
+                    // Identyfikator zapewnia unikalność nazw w archiwum.
+                    zip.putNextEntry(new ZipEntry(id + "_" + ApiUtils.toAscii(fa.getFileName())));
+                    byte[] chunk;
+                    while ((chunk = exportBean.read(64 * 1024)) != null) {
+                        zip.write(chunk);
+                    }
+                    zip.closeEntry();
+                }
+            } catch (IOException | RuntimeException ex) {
+                // Bez katalogu centralnego klient nie uzna niepełnego archiwum za poprawne.
+                target.detach();
+                throw ex;
+            } finally {
+                try {
+                    zip.close();
+                } finally {
+                    closeBean();
+                }
+            }
+        };
+        return Response.ok(output, APPLICATION_ZIP)
+                .header("Content-Disposition", "attachment; filename=\"" + ApiUtils.toAscii(fileName)
+                        + "\"; filename*=" + ContentDispositionCodec.encodeRFC5987(fileName))
+                .build();
+    }
+
+    private void closeBean() {
+        try {
+            exportBean.close();
+        } catch (RuntimeException ex) {
+            log.log(Level.WARNING, "Zamykanie eksportu", ex);
+        } finally {
+            removeBean();
+        }
+    }
+
+    private void removeBean() {
+        try {
+            exportBean.remove();
+        } catch (RuntimeException ex) {
+            log.log(Level.FINE, "Usuwanie komponentu", ex);
+        }
+    }
+
+    private static List<Long> parseIds(List<String> ids) {
+        List<Long> result = new ArrayList<>();
+        for (String value : ids) {
+            for (String id : value.split(",")) {
+                if (id.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    result.add(Long.valueOf(id.trim()));
+                } catch (NumberFormatException ex) {
+                    throw badRequest("Niepoprawny identyfikator: " + id);
+                }
+            }
+        }
+        if (result.isEmpty()) {
+            throw badRequest("Brak parametru ids");
+        }
+        return result;
+    }
+
+    private static WebApplicationException badRequest(String message) {
+        return new WebApplicationException(Response
+                .status(Response.Status.BAD_REQUEST)
+                .type(MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8"))
+                .entity(message)
+                .build());
+    }
+
+    /**
+     * Po odłączeniu pomija zapis i zamknięcie strumienia docelowego.
+     */
+    private static class DetachableOutputStream extends FilterOutputStream {
+
+        private boolean detached;
+
+        DetachableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        void detach() {
+            detached = true;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!detached) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!detached) {
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!detached) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!detached) {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.boundary;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadBeanRemote;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult.Status;
+
+/**
+ * Przesyła jedną część żądania multipart do warstwy aplikacji.
+ *
+ * Wątek czytający treść żądania przekazuje kolejne bloki danych przez
+ * ograniczoną kolejkę, więc w pamięci znajduje się najwyżej kilka bloków
+ * na każdą przesyłaną równolegle część. Po zakończeniu zadanie zwalnia
+ * pozwolenie z semafora ograniczającego równoległość.
+ *
+ * Oczekiwanie po obu stronach kolejki jest ograniczone czasem
+ * remotestatefull.upload.handoffTimeout (w sekundach), aby zakończenie jednej
+ * strony nie blokowało drugiej z otwartą transakcją w warstwie aplikacji.
+ */
+class FileAttachmentPartUpload implements Callable<FileAttachmentUploadResult> {
+
+    private static final Logger log = Logger.getLogger(FileAttachmentPartUpload.class.getName());
+
+    private static final int QUEUE_CAPACITY = 4;
+    private static final byte[] END = new byte[0];
+    private static final byte[] ABORT = new byte[0];
+    private static final long HANDOFF_TIMEOUT
+            = TimeUnit.SECONDS.toMillis(Long.getLong("remotestatefull.upload.handoffTimeout", 60));
+    private static final long OFFER_INTERVAL = 1000;
+
+    private final FileAttachmentUploadBeanRemote uploadBean;
+    private final String fileName;
+    private final Semaphore permits;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean aborted;
+    private volatile boolean finished;
+
+    FileAttachmentPartUpload(final FileAttachmentUploadBeanRemote uploadBean, final String fileName,
+            final Semaphore permits) {
+        this.uploadBean = uploadBean;
+        this.fileName = fileName;
+        this.permits = permits;
+    }
+
+    void write(final byte[] chunk) throws IOException, InterruptedException {
+        offer(chunk);
+    }
+
+    void end() throws IOException, InterruptedException {
+        offer(END);
+    }
+
+    /**
+     * Nie blokuje: gdy kolejka jest pełna, zadanie zauważy przerwanie po
+     * pobraniu kolejnego bloku.
+     */
+    void abort() {
+        aborted = true;
+        chunks.offer(ABORT);
+    }
+
+    private void offer(final byte[] chunk) throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + HANDOFF_TIMEOUT;
+        while (!finished) {
+            final long wait = Math.min(OFFER_INTERVAL, deadline - System.currentTimeMillis());
+            if (wait <= 0) {
+                throw new IOException("Przekroczono czas przekazania danych części " + fileName);
+            }
+            if (chunks.offer(chunk, wait, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+        throw new IOException("Przesyłanie części " + fileName + " zostało zakończone");
+    }
+
+    @Override
+    public FileAttachmentUploadResult call() {
+        try {
+            RuntimeException failure = null;
+            try {
+                uploadBean.init(fileName);
+            } catch (RuntimeException ex) {
+                failure = ex;
+            }
+            byte[] chunk;
+            // Kolejka jest opróżniana także po błędzie, aby nie blokować wątku czytającego.
+            while ((chunk = chunks.poll(HANDOFF_TIMEOUT, TimeUnit.MILLISECONDS)) != END) {
+                if (chunk == null || chunk == ABORT || aborted) {
+                    abortBean();
+                    return FileAttachmentUploadResult.failed(fileName, Status.FAILED,
+                            chunk == null ? "Przekroczono czas oczekiwania na dane części"
+                                    : "Przerwano odczyt części");
+                }
+                if (failure == null) {
+                    try {
+                        uploadBean.write(chunk, 0, chunk.length);
+                    } catch (RuntimeException ex) {
+                        failure = ex;
+                    }
+                }
+            }
+            if (failure == null) {
+                try {
+                    return FileAttachmentUploadResult.stored(uploadBean.close());
+                } catch (RuntimeException ex) {
+                    failure = ex;
+                }
+            }
+            log.log(Level.WARNING, "Przesyłanie części " + fileName, failure);
+            abortBean();
+            return FileAttachmentUploadResult.failed(fileName, Status.FAILED, failure.toString());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            abortBean();
+            return FileAttachmentUploadResult.failed(fileName, Status.FAILED, ex.toString());
+        } finally {
+            finished = true;
+            try {
+                uploadBean.remove();
+            } catch (RuntimeException ex) {
+                log.log(Level.FINE, "Usuwanie komponentu", ex);
+            }
+            permits.release();
+        }
+    }
+
+    private void abortBean() {
+        try {
+            uploadBean.abort();
+        } catch (RuntimeException ex) {
+            log.log(Level.FINE, "Wycofywanie transakcji", ex);
+        }
+    }
+}
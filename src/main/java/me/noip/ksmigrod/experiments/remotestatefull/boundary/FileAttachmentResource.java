@@ -23,24 +23,45 @@
  */
 package me.noip.ksmigrod.experiments.remotestatefull.boundary;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.RequestScoped;
-import javax.mail.internet.ContentDisposition;
+import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.xml.bind.JAXB;
 import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadBeanRemote;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult.Status;
 import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
-import me.noip.ksmigrod.experiments.remotestatefull.utils.ApiUtils;
+import me.noip.ksmigrod.experiments.remotestatefull.utils.ContentDispositionCodec;
+import me.noip.ksmigrod.experiments.remotestatefull.utils.MultipartStream;
 
 /**
  *
@@ -48,33 +69,65 @@ import me.noip.ksmigrod.experiments.remotestatefull.utils.ApiUtils;
  */
 @Path("files")
 @RequestScoped
+@EJB(name = FileAttachmentResource.UPLOAD_BEAN_NAME,
+        beanInterface = FileAttachmentUploadBeanRemote.class,
+        mappedName = "jndi:ext://app/FileAttachmentUploadBeanRemote")
 public class FileAttachmentResource {
 
     private static final Logger log = Logger.getLogger(FileAttachmentResource.class.getName());
-    
-    @EJB(mappedName = "jndi:ext://app/FileAttachmentUploadBeanRemote")
-    FileAttachmentUploadBeanRemote uploadBean;
+
+    static final String UPLOAD_BEAN_NAME = "ejb/FileAttachmentUploadBeanRemote";
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Maksymalna liczba części multipart przesyłanych równolegle do warstwy aplikacji.
+     */
+    private static final int UPLOAD_PARALLELISM
+            = Integer.getInteger("remotestatefull.upload.parallelism", 4);
+
+    private static final int MAX_ERROR_SIZE = 8 * 1024;
+
+    @Resource
+    ManagedExecutorService executor;
 
     @POST
     public FileAttachment uploadFileAttachment(
             InputStream dataStream,
-            @HeaderParam("Content-Disposition") ContentDisposition contentDisposition) {
-        String fileName = ApiUtils.getFileNameFromContentDisposition(contentDisposition);
+            @HeaderParam("Content-Disposition") String contentDisposition) {
+        String fileName;
+        try {
+            fileName = ContentDispositionCodec.getFileName(contentDisposition);
+        } catch (IllegalArgumentException ex) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8"))
+                    .entity(ex.getMessage())
+                    .build());
+        }
+        CountingInputStream countingStream = new CountingInputStream(dataStream);
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long startTime = System.nanoTime();
+        long startCpuTime = threadBean.getCurrentThreadCpuTime();
+        boolean httpTransport = isHttpTransport();
+        FileAttachment fileAttachment = httpTransport
+                ? uploadViaHttp(countingStream, fileName)
+                : uploadViaEjb(countingStream, fileName);
+        log.log(Level.INFO, "Przesłano {0} B przez {1}: {2} ms, CPU {3} ms",
+                new Object[]{countingStream.getCount(), httpTransport ? "http" : "ejb",
+                    (System.nanoTime() - startTime) / 1000000,
+                    (threadBean.getCurrentThreadCpuTime() - startCpuTime) / 1000000});
+        return fileAttachment;
+    }
+
+    private FileAttachment uploadViaEjb(InputStream dataStream, String fileName) {
+        FileAttachmentUploadBeanRemote uploadBean = lookupUploadBean();
         uploadBean.init(fileName);
         try {
-            byte[] bufor = new byte[64 * 1024];
-            int bytesRead = 0;
-            int offset = 0;
-            while ((bytesRead = dataStream.read(bufor, offset, 64 * 1024 - offset)) != -1) {
-                if (offset + bytesRead == 64 * 1024) {
-                    uploadBean.write(bufor, 0, offset + bytesRead);
-                    offset = 0;
-                } else {
-                    offset += bytesRead;
-                }
-            }
-            if (offset != 0) {
-                uploadBean.write(bufor, 0, offset);
+            byte[] bufor = new byte[CHUNK_SIZE];
+            int length;
+            while ((length = readChunk(dataStream, bufor)) > 0) {
+                uploadBean.write(bufor, 0, length);
             }
             return uploadBean.close();
         } catch (IOException ex) {
@@ -89,4 +142,251 @@ public class FileAttachmentResource {
         }
         
     }
+
+    /**
+     * Przekazuje treść żądania do {@link FileAttachmentStreamResource} w
+     * warstwie aplikacji jako treść HTTP w trybie chunked, bez serializacji
+     * poszczególnych bloków.
+     */
+    private FileAttachment uploadViaHttp(InputStream dataStream, String fileName) {
+        String uploadUrl = System.getProperty("remotestatefull.upload.url");
+        if (uploadUrl == null) {
+            throw new IllegalStateException("Brak właściwości remotestatefull.upload.url");
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(uploadUrl).openConnection();
+            connection.setConnectTimeout(Integer.getInteger("remotestatefull.upload.connectTimeout", 10000));
+            connection.setReadTimeout(Integer.getInteger("remotestatefull.upload.readTimeout", 60000));
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setChunkedStreamingMode(CHUNK_SIZE);
+            connection.setRequestProperty(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM);
+            connection.setRequestProperty(HttpHeaders.ACCEPT, MediaType.APPLICATION_XML);
+            if (fileName != null) {
+                connection.setRequestProperty("Content-Disposition",
+                        "attachment; filename*=" + ContentDispositionCodec.encodeRFC5987(fileName));
+            }
+            OutputStream os = connection.getOutputStream();
+            byte[] bufor = new byte[CHUNK_SIZE];
+            int bytesRead;
+            while ((bytesRead = readFromClient(dataStream, bufor, connection)) != -1) {
+                os.write(bufor, 0, bytesRead);
+            }
+            // Zamknięcie wysyła ostatni, pusty fragment - dopiero wtedy plik jest zatwierdzany.
+            os.close();
+            int status = connection.getResponseCode();
+            if (status >= 400 && status < 500) {
+                // Błąd danych od klienta, np. niepoprawna nazwa pliku.
+                throw new WebApplicationException(Response
+                        .status(status)
+                        .type(MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8"))
+                        .entity(readError(connection))
+                        .build());
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Warstwa aplikacji zwróciła " + status + ": " + readError(connection));
+            }
+            try (InputStream is = connection.getInputStream()) {
+                return JAXB.unmarshal(is, FileAttachment.class);
+            }
+        } catch (IOException ex) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            throw new WebApplicationException(Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .type(MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8"))
+                    .entity(ex.toString())
+                    .build());
+        }
+    }
+
+    /**
+     * Transport do warstwy aplikacji: ejb (zdalne wywołania
+     * FileAttachmentUploadBeanRemote) lub http (strumień do
+     * FileAttachmentStreamResource pod adresem remotestatefull.upload.url).
+     * Właściwość jest czytana przy każdym żądaniu, więc tryb można przełączyć
+     * bez ponownego uruchamiania serwera.
+     */
+    private static boolean isHttpTransport() {
+        return "http".equalsIgnoreCase(System.getProperty("remotestatefull.upload.transport", "ejb"));
+    }
+
+    /**
+     * @return Początek treści odpowiedzi z błędem.
+     */
+    private static String readError(HttpURLConnection connection) throws IOException {
+        try (InputStream es = connection.getErrorStream()) {
+            if (es == null) {
+                return "";
+            }
+            byte[] bufor = new byte[MAX_ERROR_SIZE];
+            int length = readChunk(es, bufor);
+            return new String(bufor, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Przy błędzie odczytu zrywa połączenie z warstwą aplikacji, zanim treść
+     * chunked zostanie zakończona, aby niepełny plik został wycofany.
+     */
+    private static int readFromClient(InputStream dataStream, byte[] bufor,
+            HttpURLConnection connection) throws IOException {
+        try {
+            return dataStream.read(bufor);
+        } catch (IOException ex) {
+            connection.disconnect();
+            throw ex;
+        }
+    }
+
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    public List<FileAttachmentUploadResult> uploadFileAttachments(
+            InputStream dataStream,
+            @HeaderParam(HttpHeaders.CONTENT_TYPE) MediaType contentType) {
+        String boundary = contentType.getParameters().get("boundary");
+        if (boundary == null) {
+            throw new WebApplicationException(Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8"))
+                    .entity("Brak parametru boundary")
+                    .build());
+        }
+        MultipartStream multipart = new MultipartStream(dataStream, boundary);
+        Semaphore permits = new Semaphore(UPLOAD_PARALLELISM);
+        List<String> fileNames = new ArrayList<>();
+        List<Future<FileAttachmentUploadResult>> futures = new ArrayList<>();
+        FileAttachmentUploadResult streamFailure = null;
+        try {
+            while (multipart.nextPart()) {
+                String fileName;
+                try {
+                    fileName = ContentDispositionCodec.getFileName(multipart.getHeader("Content-Disposition"));
+                } catch (IllegalArgumentException ex) {
+                    // Nie wiadomo, czy to plik, więc część jest odrzucana zamiast pomijana.
+                    log.log(Level.WARNING, "Niepoprawny nagłówek Content-Disposition części", ex);
+                    fileNames.add(null);
+                    futures.add(CompletableFuture.completedFuture(
+                            FileAttachmentUploadResult.failed(null, Status.REJECTED, ex.getMessage())));
+                    continue;
+                }
+                if (fileName == null) {
+                    // Zwykłe pole formularza.
+                    continue;
+                }
+                permits.acquire();
+                FileAttachmentPartUpload upload;
+                try {
+                    upload = new FileAttachmentPartUpload(lookupUploadBean(), fileName, permits);
+                    futures.add(executor.submit(upload));
+                } catch (RuntimeException ex) {
+                    permits.release();
+                    throw ex;
+                }
+                fileNames.add(fileName);
+                InputStream partStream = multipart.getInputStream();
+                try {
+                    byte[] chunk = new byte[CHUNK_SIZE];
+                    int length;
+                    while ((length = readChunk(partStream, chunk)) == CHUNK_SIZE) {
+                        upload.write(chunk);
+                        chunk = new byte[CHUNK_SIZE];
+                    }
+                    if (length > 0) {
+                        upload.write(Arrays.copyOf(chunk, length));
+                    }
+                    upload.end();
+                } catch (IOException | RuntimeException | InterruptedException ex) {
+                    upload.abort();
+                    throw ex;
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.WARNING, "Odczyt treści multipart", ex);
+            streamFailure = FileAttachmentUploadResult.failed(null, Status.FAILED, ex.toString());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            streamFailure = FileAttachmentUploadResult.failed(null, Status.FAILED, ex.toString());
+        }
+        List<FileAttachmentUploadResult> results = new ArrayList<>(futures.size() + 1);
+        for (int i = 0; i < futures.size(); i++) {
+            results.add(getPartResult(fileNames.get(i), futures.get(i)));
+        }
+        if (streamFailure != null) {
+            results.add(streamFailure);
+        }
+        return results;
+    }
+
+    private FileAttachmentUploadBeanRemote lookupUploadBean() {
+        try {
+            // Każde wyszukanie tworzy nową instancję komponentu stanowego.
+            return (FileAttachmentUploadBeanRemote) new InitialContext()
+                    .lookup("java:comp/env/" + UPLOAD_BEAN_NAME);
+        } catch (NamingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Wypełnia cały bufor, chyba że strumień się skończy. Pełne bloki
+     * ograniczają liczbę wywołań zdalnych do jednego na {@link #CHUNK_SIZE}
+     * bajtów.
+     *
+     * @return liczba wczytanych bajtów, 0 na końcu strumienia
+     */
+    static int readChunk(InputStream in, byte[] chunk) throws IOException {
+        int offset = 0;
+        int bytesRead;
+        while (offset < chunk.length
+                && (bytesRead = in.read(chunk, offset, chunk.length - offset)) != -1) {
+            offset += bytesRead;
+        }
+        return offset;
+    }
+
+    private static FileAttachmentUploadResult getPartResult(String fileName,
+            Future<FileAttachmentUploadResult> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            return FileAttachmentUploadResult.failed(fileName, Status.FAILED, ex.getCause().toString());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return FileAttachmentUploadResult.failed(fileName, Status.FAILED, ex.toString());
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytesRead = super.read(b, off, len);
+            if (bytesRead > 0) {
+                count += bytesRead;
+            }
+            return bytesRead;
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.boundary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javax.ejb.EJB;
+import javax.enterprise.context.RequestScoped;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadBean;
+import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
+import me.noip.ksmigrod.experiments.remotestatefull.utils.ContentDispositionCodec;
+
+/**
+ * Punkt przyjmujący plik w warstwie aplikacji jako strumień HTTP.
+ *
+ * Alternatywa dla zdalnych wywołań {@code FileAttachmentUploadBeanRemote}:
+ * bloki danych trafiają do komponentu przez widok lokalny, bez serializacji.
+ */
+@Path("files/stream")
+@RequestScoped
+public class FileAttachmentStreamResource {
+
+    @EJB
+    FileAttachmentUploadBean uploadBean;
+
+    @POST
+    public FileAttachment uploadFileAttachment(
+            InputStream dataStream,
+            @HeaderParam("Content-Disposition") String contentDisposition) {
+        String fileName;
+        try {
+            fileName = ContentDispositionCodec.getFileName(contentDisposition);
+        } catch (IllegalArgumentException ex) {
+            uploadBean.remove();
+            throw new WebApplicationException(Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8"))
+                    .entity(ex.getMessage())
+                    .build());
+        }
+        uploadBean.init(fileName);
+        try {
+            byte[] bufor = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = dataStream.read(bufor)) != -1) {
+                uploadBean.write(bufor, 0, bytesRead);
+            }
+            return uploadBean.close();
+        } catch (IOException ex) {
+            uploadBean.abort();
+            throw new WebApplicationException(Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .type(MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8"))
+                    .entity(ex.toString())
+                    .build());
+        } finally {
+            uploadBean.remove();
+        }
+    }
+}
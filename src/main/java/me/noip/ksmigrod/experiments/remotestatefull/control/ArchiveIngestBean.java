@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Remove;
+import javax.ejb.Stateful;
+import javax.ejb.TransactionManagement;
+import javax.ejb.TransactionManagementType;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import javax.xml.bind.DatatypeConverter;
+import me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestResult.Outcome;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult.Status;
+import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
+
+/**
+ * Rozpakowuje archiwum w miarę napływania danych i zapisuje pliki partiami.
+ *
+ * Pliki są gromadzone bez otwartej transakcji i zapisywane co
+ * {@link #BATCH_SIZE} plików w jednej krótkiej transakcji, dzięki czemu
+ * EclipseLink wysyła INSERT-y wsadowo (eclipselink.jdbc.batch-writing w
+ * persistence.xml), a żadna transakcja nie trwa dłużej niż jedno wywołanie
+ * zdalne.
+ *
+ * Wynik zawiera jedynie liczniki i najwyżej {@link #MAX_REPORTED_ENTRIES}
+ * plików odrzuconych lub niezapisanych, aby zajętość pamięci nie zależała od
+ * liczby plików w archiwum.
+ */
+@Stateful(passivationCapable = false)
+@TransactionManagement(TransactionManagementType.BEAN)
+public class ArchiveIngestBean implements ArchiveIngestBeanRemote {
+
+    private static final Logger logger
+            = Logger.getLogger(ArchiveIngestBean.class.getName());
+
+    private static final int BATCH_SIZE
+            = Integer.getInteger("remotestatefull.ingest.batchSize", 1000);
+
+    private static final int MAX_REPORTED_ENTRIES
+            = Integer.getInteger("remotestatefull.ingest.maxReportedEntries", 1000);
+
+    @PersistenceUnit
+    EntityManagerFactory emf;
+
+    @Resource
+    UserTransaction utx;
+
+    @Resource
+    Validator validator;
+
+    MessageDigest md;
+
+    private ArchiveStreamParser parser;
+    private final List<FileAttachment> pending = new ArrayList<>();
+    private final ArchiveIngestResult result = new ArchiveIngestResult();
+    private String entryName;
+    private long entries;
+
+    @Override
+    public void init(final ArchiveFormat format) {
+        logger.log(Level.INFO, "entering init({0})", format);
+        try {
+            this.md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        this.parser = ArchiveStreamParser.create(format, new EntryListener());
+    }
+
+    @Override
+    public long write(final byte[] buffer, final int offset, final int length) {
+        if (parser == null || result.getOutcome() != null) {
+            return STOPPED;
+        }
+        result.setBytes(result.getBytes() + length);
+        try {
+            parser.update(buffer, offset, length);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Parsing archive.", ex);
+            result.setOutcome(Outcome.INVALID_ARCHIVE);
+            result.setMessage(ex.toString());
+            return STOPPED;
+        } catch (RuntimeException ex) {
+            // Wyjątek systemowy usunąłby komponent razem z licznikami zapisanych plików.
+            logger.log(Level.SEVERE, "Storing archive entries.", ex);
+            discardBatch(ex.toString());
+            result.setOutcome(Outcome.FAILED);
+            result.setMessage(ex.toString());
+            return STOPPED;
+        }
+        return entries;
+    }
+
+    @Override
+    public ArchiveIngestResult close() {
+        logger.log(Level.INFO, "entering close() {0} entries", entries);
+        if (parser != null && result.getOutcome() == null) {
+            try {
+                parser.finish();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Parsing archive.", ex);
+                result.setOutcome(Outcome.INVALID_ARCHIVE);
+                result.setMessage(ex.toString());
+            }
+        }
+        releaseParser();
+        commitBatch();
+        if (result.getOutcome() == null) {
+            result.setOutcome(Outcome.COMPLETED);
+        }
+        return result;
+    }
+
+    @Override
+    public ArchiveIngestResult abort() {
+        logger.log(Level.INFO, "entering abort() {0} entries", entries);
+        releaseParser();
+        discardBatch("Przerwano wczytywanie archiwum");
+        if (result.getOutcome() == null) {
+            result.setOutcome(Outcome.FAILED);
+        }
+        return result;
+    }
+
+    @Override
+    @Remove
+    public void remove() {
+    }
+
+    @PreDestroy
+    void releaseParser() {
+        if (parser != null) {
+            parser.release();
+            parser = null;
+        }
+    }
+
+    private void persist(final FileAttachment fileAttachment) {
+        pending.add(fileAttachment);
+        if (pending.size() >= BATCH_SIZE) {
+            commitBatch();
+        }
+    }
+
+    private void commitBatch() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        EntityManager em = null;
+        try {
+            utx.begin();
+            em = emf.createEntityManager();
+            for (FileAttachment fileAttachment : pending) {
+                em.persist(fileAttachment);
+            }
+            em.close();
+            em = null;
+            utx.commit();
+            result.setStored(result.getStored() + pending.size());
+        } catch (NotSupportedException | RollbackException | HeuristicMixedException
+                | HeuristicRollbackException | SystemException | RuntimeException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            if (em != null) {
+                em.close();
+            }
+            rollback();
+            for (FileAttachment fileAttachment : pending) {
+                report(FileAttachmentUploadResult.failed(fileAttachment.getFileName(),
+                        Status.FAILED, ex.toString()));
+            }
+            result.setFailed(result.getFailed() + pending.size());
+        }
+        pending.clear();
+        logger.log(Level.INFO, "committed batch, {0} entries stored", result.getStored());
+    }
+
+    private void rollback() {
+        try {
+            if (utx.getStatus() != javax.transaction.Status.STATUS_NO_TRANSACTION) {
+                utx.rollback();
+            }
+        } catch (IllegalStateException | SecurityException | SystemException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Oznacza pliki oczekujące na zapis jako niezapisane.
+     */
+    private void discardBatch(final String message) {
+        for (FileAttachment fileAttachment : pending) {
+            report(FileAttachmentUploadResult.failed(fileAttachment.getFileName(),
+                    Status.FAILED, message));
+        }
+        result.setFailed(result.getFailed() + pending.size());
+        pending.clear();
+    }
+
+    private void report(final FileAttachmentUploadResult entryResult) {
+        if (result.getEntries().size() < MAX_REPORTED_ENTRIES) {
+            result.getEntries().add(entryResult);
+        } else {
+            result.setOmitted(result.getOmitted() + 1);
+        }
+    }
+
+    private class EntryListener implements ArchiveStreamParser.EntryListener {
+
+        @Override
+        public void startEntry(final String name) {
+            entryName = name;
+            md.reset();
+        }
+
+        @Override
+        public void entryData(final byte[] buffer, final int offset, final int length) {
+            md.update(buffer, offset, length);
+        }
+
+        @Override
+        public void endEntry() {
+            entries++;
+            FileAttachment fileAttachment = new FileAttachment();
+            fileAttachment.setFileName(entryName);
+            fileAttachment.setCheckSum(DatatypeConverter.printHexBinary(md.digest()).toUpperCase());
+            Set<ConstraintViolation<FileAttachment>> violations = validator.validate(fileAttachment);
+            if (violations.isEmpty()) {
+                persist(fileAttachment);
+            } else {
+                ConstraintViolation<FileAttachment> cv = violations.iterator().next();
+                logger.log(Level.WARNING, "ConstraintViolation {0}", cv);
+                report(FileAttachmentUploadResult.failed(entryName,
+                        Status.REJECTED, cv.getPropertyPath() + " " + cv.getMessage()));
+                result.setRejected(result.getRejected() + 1);
+            }
+        }
+    }
+}
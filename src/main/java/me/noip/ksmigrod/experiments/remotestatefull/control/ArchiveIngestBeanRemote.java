@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import javax.ejb.Remote;
+
+/**
+ * Wczytywanie archiwum ZIP/TAR jako wielu plików.
+ */
+@Remote
+public interface ArchiveIngestBeanRemote {
+
+    long STOPPED = -1;
+
+    void init(final ArchiveFormat format);
+
+    /**
+     * @return Liczba plików archiwum przetworzonych do tej pory lub
+     * {@link #STOPPED}, gdy dalsze dane nie zostaną już przetworzone i należy
+     * wywołać {@link #close()}.
+     */
+    long write(final byte[] buffer, final int offset, final int length);
+
+    ArchiveIngestResult close();
+
+    /**
+     * Odrzuca pliki oczekujące na zapis. Partie zapisane wcześniej pozostają w bazie.
+     *
+     * @return Wynik z liczbą plików zapisanych przed przerwaniem.
+     */
+    ArchiveIngestResult abort();
+
+    void remove();
+
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Wynik wczytania archiwum: liczniki i lista plików odrzuconych lub
+ * niezapisanych.
+ */
+@XmlRootElement
+public class ArchiveIngestResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Outcome {
+        /**
+         * Archiwum przetworzone w całości.
+         */
+        COMPLETED,
+        /**
+         * Niepoprawna lub niekompletna struktura archiwum.
+         */
+        INVALID_ARCHIVE,
+        /**
+         * Błąd zapisu lub przerwane przesyłanie.
+         */
+        FAILED
+    }
+
+    private Outcome outcome;
+    private long bytes;
+    private long stored;
+    private long rejected;
+    private long failed;
+    private long omitted;
+    private String message;
+    private List<FileAttachmentUploadResult> entries = new ArrayList<>();
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public void setOutcome(Outcome outcome) {
+        this.outcome = outcome;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public long getStored() {
+        return stored;
+    }
+
+    public void setStored(long stored) {
+        this.stored = stored;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    /**
+     * @return Liczba plików odrzuconych lub niezapisanych, które nie zmieściły
+     * się na liście {@link #getEntries()}.
+     */
+    public long getOmitted() {
+        return omitted;
+    }
+
+    public void setOmitted(long omitted) {
+        this.omitted = omitted;
+    }
+
+    /**
+     * @return Opis błędu struktury archiwum lub null.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return Pliki odrzucone (REJECTED) lub niezapisane (FAILED). Pliki
+     * zapisane są jedynie liczone w {@link #getStored()}.
+     */
+    public List<FileAttachmentUploadResult> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<FileAttachmentUploadResult> entries) {
+        this.entries = entries;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveIngestResult[ outcome=" + outcome + ", stored=" + stored + ", rejected=" + rejected
+                + ", failed=" + failed + ", omitted=" + omitted + " ]";
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.IOException;
+
+/**
+ * Parser archiwum zasilany kolejnymi blokami danych.
+ *
+ * Dane przychodzą w wywołaniach zdalnych, więc parser nie może sam czytać ze
+ * strumienia. Zamiast tego przechowuje jedynie stan bieżącego nagłówka i
+ * przekazuje zawartość plików do {@link EntryListener} w miarę napływania
+ * danych.
+ */
+abstract class ArchiveStreamParser {
+
+    interface EntryListener {
+
+        void startEntry(String name);
+
+        void entryData(byte[] buffer, int offset, int length);
+
+        void endEntry();
+    }
+
+    protected final EntryListener listener;
+
+    protected ArchiveStreamParser(final EntryListener listener) {
+        this.listener = listener;
+    }
+
+    static ArchiveStreamParser create(final ArchiveFormat format, final EntryListener listener) {
+        switch (format) {
+            case ZIP:
+                return new ZipStreamParser(listener);
+            case TAR:
+                return new TarStreamParser(listener);
+            default:
+                throw new IllegalArgumentException("Nieobsługiwany format archiwum: " + format);
+        }
+    }
+
+    /**
+     * Przetwarza kolejny blok danych archiwum.
+     *
+     * @throws IOException Niepoprawna struktura archiwum.
+     */
+    abstract void update(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Sprawdza, czy archiwum zostało przetworzone w całości.
+     *
+     * @throws IOException Archiwum jest niekompletne.
+     */
+    abstract void finish() throws IOException;
+
+    /**
+     * Zwalnia zasoby parsera. Po wywołaniu parser nie może być używany.
+     */
+    void release() {
+    }
+}
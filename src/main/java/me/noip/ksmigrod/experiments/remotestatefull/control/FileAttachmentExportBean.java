@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.Remove;
+import javax.ejb.Stateful;
+import javax.ejb.TransactionManagement;
+import javax.ejb.TransactionManagementType;
+import javax.sql.DataSource;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
+
+/**
+ * Odczytuje zawartość plików strumieniowo z kolumny FILE_DATA, bez ładowania
+ * całej zawartości do pamięci.
+ *
+ * Każdy plik jest czytany w osobnej transakcji tylko do odczytu i na osobnym
+ * połączeniu, otwieranych w {@link #open(long)} i zamykanych po odczytaniu
+ * ostatniego bloku. Czas trwania transakcji nie zależy więc od liczby plików
+ * w eksporcie.
+ */
+@Stateful(passivationCapable = false)
+@TransactionManagement(TransactionManagementType.BEAN)
+public class FileAttachmentExportBean implements FileAttachmentExportBeanRemote {
+
+    private static final Logger logger
+            = Logger.getLogger(FileAttachmentExportBean.class.getName());
+
+    @Resource
+    DataSource dataSource;
+
+    @Resource
+    UserTransaction utx;
+
+    private boolean active;
+    private Connection connection;
+    private PreparedStatement statement;
+    private ResultSet resultSet;
+    private InputStream data;
+
+    @Override
+    public void init() {
+        logger.log(Level.INFO, "entering init()");
+    }
+
+    @Override
+    public FileAttachment open(final long id) {
+        end(false);
+        try {
+            utx.begin();
+            active = true;
+            connection = dataSource.getConnection();
+            // Przed pierwszym zapytaniem, póki baza nie rozpoczęła transakcji.
+            connection.setReadOnly(true);
+            statement = connection.prepareStatement("SELECT FILE_NAME, FILE_CHECKSUM, FILE_DATA"
+                    + " FROM FILE_ATTACHMENTS"
+                    + " WHERE FILE_ID = ?");
+            statement.setLong(1, id);
+            resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                end(true);
+                return null;
+            }
+            FileAttachment fa = new FileAttachment();
+            fa.setId(id);
+            fa.setFileName(resultSet.getString(1));
+            fa.setCheckSum(resultSet.getString(2));
+            data = resultSet.getBinaryStream(3);
+            if (data == null) {
+                end(true);
+            }
+            return fa;
+        } catch (NotSupportedException | SystemException | SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            end(false);
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public byte[] read(final int length) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            byte[] buffer = new byte[length];
+            int offset = 0;
+            int bytesRead = 0;
+            while (offset < length && (bytesRead = data.read(buffer, offset, length - offset)) != -1) {
+                offset += bytesRead;
+            }
+            if (bytesRead == -1) {
+                // Koniec pliku - transakcja nie jest potrzebna do kolejnego wywołania.
+                end(true);
+            }
+            if (offset == 0) {
+                return null;
+            }
+            return offset == length ? buffer : Arrays.copyOf(buffer, offset);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            end(false);
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        logger.log(Level.INFO, "entering close()");
+        // Transakcja otwarta w tym miejscu oznacza przerwany eksport.
+        end(false);
+    }
+
+    @Override
+    @Remove
+    public void remove() {
+    }
+
+    private void end(final boolean commit) {
+        data = null;
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.WARNING, null, ex);
+        }
+        resultSet = null;
+        statement = null;
+        if (active) {
+            active = false;
+            try {
+                if (commit) {
+                    utx.commit();
+                } else {
+                    utx.rollback();
+                }
+            } catch (RollbackException | HeuristicMixedException | HeuristicRollbackException
+                    | SecurityException | IllegalStateException | SystemException ex) {
+                logger.log(Level.SEVERE, null, ex);
+            }
+        }
+        if (connection != null) {
+            try {
+                // Połączenie wraca do puli, więc tryb jest przywracany po zakończeniu transakcji.
+                connection.setReadOnly(false);
+            } catch (SQLException ex) {
+                logger.log(Level.WARNING, null, ex);
+            }
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                logger.log(Level.WARNING, null, ex);
+            }
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import javax.ejb.Remote;
+import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
+
+/**
+ * Odczyt zawartości wielu plików, blok po bloku.
+ */
+@Remote
+public interface FileAttachmentExportBeanRemote {
+
+    void init();
+
+    /**
+     * Rozpoczyna odczyt pliku we własnej transakcji, kończąc odczyt poprzedniego.
+     *
+     * @return Opis pliku bez zawartości lub null, gdy plik nie istnieje.
+     */
+    FileAttachment open(final long id);
+
+    /**
+     * @return Kolejny blok zawartości otwartego pliku lub null na końcu danych.
+     * Po odczytaniu ostatniego bloku transakcja pliku jest zatwierdzana.
+     */
+    byte[] read(final int length);
+
+    void close();
+
+    void remove();
+
+}
@@ -34,6 +34,7 @@ import java.sql.SQLException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Resource;
+import javax.ejb.LocalBean;
 import javax.ejb.Remove;
 import javax.ejb.Stateful;
 import javax.ejb.TransactionManagement;
@@ -57,6 +58,7 @@ import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
  * @author Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>
  */
 @Stateful(passivationCapable = false)
+@LocalBean
 @TransactionManagement(TransactionManagementType.BEAN)
 public class FileAttachmentUploadBean implements FileAttachmentUploadBeanRemote {
 
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.Serializable;
+import javax.xml.bind.annotation.XmlRootElement;
+import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
+
+/**
+ * Wynik zapisu pojedynczego pliku w operacjach wsadowych.
+ */
+@XmlRootElement
+public class FileAttachmentUploadResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        STORED, REJECTED, FAILED
+    }
+
+    private String fileName;
+    private Status status;
+    private Long id;
+    private String checkSum;
+    private String message;
+
+    public static FileAttachmentUploadResult stored(final FileAttachment fileAttachment) {
+        final FileAttachmentUploadResult result = new FileAttachmentUploadResult();
+        result.setFileName(fileAttachment.getFileName());
+        result.setStatus(Status.STORED);
+        result.setId(fileAttachment.getId());
+        result.setCheckSum(fileAttachment.getCheckSum());
+        return result;
+    }
+
+    public static FileAttachmentUploadResult failed(final String fileName, final Status status,
+            final String message) {
+        final FileAttachmentUploadResult result = new FileAttachmentUploadResult();
+        result.setFileName(fileName);
+        result.setStatus(status);
+        result.setMessage(message);
+        return result;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getCheckSum() {
+        return checkSum;
+    }
+
+    public void setCheckSum(String checkSum) {
+        this.checkSum = checkSum;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return "FileAttachmentUploadResult[ fileName=" + fileName + ", status=" + status + " ]";
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser archiwów TAR (ustar, z rozszerzeniami GNU i pax dla długich nazw).
+ */
+final class TarStreamParser extends ArchiveStreamParser {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int MAX_METADATA_SIZE = 64 * 1024;
+
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private int headerLength;
+    private long remaining;
+    private int padding;
+    private boolean regular;
+    private ByteArrayOutputStream metadata;
+    private byte metadataType;
+    private String nextName;
+    private int zeroBlocks;
+    private boolean done;
+
+    TarStreamParser(final EntryListener listener) {
+        super(listener);
+    }
+
+    @Override
+    void update(final byte[] buffer, int offset, final int length) throws IOException {
+        final int end = offset + length;
+        while (offset < end && !done) {
+            if (remaining > 0) {
+                final int count = (int) Math.min(remaining, end - offset);
+                if (metadata != null) {
+                    metadata.write(buffer, offset, count);
+                } else if (regular) {
+                    listener.entryData(buffer, offset, count);
+                }
+                offset += count;
+                remaining -= count;
+                if (remaining == 0) {
+                    endData();
+                }
+            } else if (padding > 0) {
+                final int count = Math.min(padding, end - offset);
+                offset += count;
+                padding -= count;
+            } else {
+                final int count = Math.min(BLOCK_SIZE - headerLength, end - offset);
+                System.arraycopy(buffer, offset, header, headerLength, count);
+                offset += count;
+                headerLength += count;
+                if (headerLength == BLOCK_SIZE) {
+                    headerLength = 0;
+                    processHeader();
+                }
+            }
+        }
+    }
+
+    @Override
+    void finish() throws IOException {
+        // Podobnie jak GNU tar akceptowany jest pojedynczy blok zerowy na końcu.
+        if (!done && (zeroBlocks == 0 || headerLength > 0)) {
+            throw new EOFException("Niekompletne archiwum TAR");
+        }
+    }
+
+    private void processHeader() throws IOException {
+        if (isZeroBlock()) {
+            if (++zeroBlocks == 2) {
+                done = true;
+            }
+            return;
+        }
+        zeroBlocks = 0;
+        if (parseNumber(148, 8) != checkSum()) {
+            throw new IOException("Niepoprawna suma kontrolna nagłówka TAR");
+        }
+        final long size = parseNumber(124, 12);
+        final byte type = header[156];
+        remaining = size;
+        padding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+        regular = false;
+        metadata = null;
+        switch (type) {
+            case 'L':
+            case 'x':
+                if (size > MAX_METADATA_SIZE) {
+                    throw new IOException("Zbyt duży rozszerzony nagłówek TAR");
+                }
+                metadata = new ByteArrayOutputStream((int) size);
+                metadataType = type;
+                break;
+            case '0':
+            case '7':
+            case 0:
+                regular = true;
+                listener.startEntry(nextName != null ? nextName : headerName());
+                nextName = null;
+                break;
+            case 'g':
+                break;
+            default:
+                // Katalogi, dowiązania i pliki specjalne nie mają treści do zapisania.
+                nextName = null;
+                break;
+        }
+        if (size == 0) {
+            endData();
+        }
+    }
+
+    private void endData() {
+        if (metadata != null) {
+            final byte[] data = metadata.toByteArray();
+            metadata = null;
+            if (metadataType == 'L') {
+                int length = data.length;
+                while (length > 0 && data[length - 1] == 0) {
+                    length--;
+                }
+                nextName = new String(data, 0, length, StandardCharsets.UTF_8);
+            } else {
+                final String path = paxPath(data);
+                if (path != null) {
+                    nextName = path;
+                }
+            }
+        } else if (regular) {
+            listener.endEntry();
+        }
+    }
+
+    private String headerName() {
+        final String name = parseString(0, 100);
+        if (header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                && header[260] == 'a' && header[261] == 'r') {
+            final String prefix = parseString(345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + '/' + name;
+            }
+        }
+        return name;
+    }
+
+    private static String paxPath(final byte[] data) {
+        String path = null;
+        int position = 0;
+        while (position < data.length) {
+            int space = position;
+            int length = 0;
+            while (space < data.length && data[space] >= '0' && data[space] <= '9') {
+                length = length * 10 + data[space++] - '0';
+            }
+            if (space == data.length || data[space] != ' ' || length <= 0
+                    || position + length > data.length) {
+                break;
+            }
+            final String record = new String(data, space + 1, position + length - space - 2,
+                    StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) {
+                path = record.substring(5);
+            }
+            position += length;
+        }
+        return path;
+    }
+
+    private boolean isZeroBlock() {
+        for (byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long checkSum() {
+        long sum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            sum += (i >= 148 && i < 156) ? ' ' : header[i] & 0xff;
+        }
+        return sum;
+    }
+
+    private String parseString(final int offset, final int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private long parseNumber(final int offset, final int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            // Kodowanie GNU base-256 dla dużych wartości.
+            long value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        long value = 0;
+        int i = offset;
+        final int end = offset + length;
+        while (i < end && (header[i] == ' ' || header[i] == 0)) {
+            i++;
+        }
+        for (; i < end && header[i] != ' ' && header[i] != 0; i++) {
+            if (header[i] < '0' || header[i] > '7') {
+                throw new IOException("Niepoprawna wartość liczbowa w nagłówku TAR");
+            }
+            value = (value << 3) | (header[i] - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.EOFException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Parser archiwów ZIP czytający kolejne lokalne nagłówki plików.
+ *
+ * Katalog centralny na końcu archiwum jest pomijany. Obsługiwane są metody
+ * STORED i DEFLATED, deskryptory danych oraz rozmiary ZIP64.
+ */
+final class ZipStreamParser extends ArchiveStreamParser {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_HEADER_SIGNATURE = 0x06054b50;
+    private static final int SIGNATURE_SIZE = 4;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private enum State {
+        SIGNATURE, LOCAL_HEADER, NAME, STORED, DEFLATED, DESCRIPTOR_SIGNATURE, DESCRIPTOR, DONE
+    }
+
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] output = new byte[BUFFER_SIZE];
+    private byte[] field = new byte[LOCAL_HEADER_SIZE];
+    private int fieldLength;
+    private int fieldNeeded = SIGNATURE_SIZE;
+    private State state = State.SIGNATURE;
+    private int flags;
+    private int method;
+    private int nameLength;
+    private long compressedSize;
+    private boolean zip64;
+    private boolean regular;
+
+    ZipStreamParser(final EntryListener listener) {
+        super(listener);
+    }
+
+    @Override
+    void update(final byte[] buffer, int offset, final int length) throws ZipException {
+        final int end = offset + length;
+        while (offset < end && state != State.DONE) {
+            switch (state) {
+                case STORED: {
+                    final int count = (int) Math.min(compressedSize, end - offset);
+                    if (regular) {
+                        listener.entryData(buffer, offset, count);
+                    }
+                    offset += count;
+                    compressedSize -= count;
+                    if (compressedSize == 0) {
+                        endEntry();
+                    }
+                    break;
+                }
+                case DEFLATED:
+                    offset = inflate(buffer, offset, end);
+                    break;
+                default:
+                    offset += accumulate(buffer, offset, end);
+                    if (fieldLength == fieldNeeded) {
+                        processField();
+                    }
+                    break;
+            }
+        }
+    }
+
+    @Override
+    void finish() throws EOFException {
+        if (state != State.DONE) {
+            throw new EOFException("Niekompletne archiwum ZIP");
+        }
+    }
+
+    @Override
+    void release() {
+        // Pamięć zlib jest poza stertą, nie należy czekać na finalizację.
+        inflater.end();
+    }
+
+    private int accumulate(final byte[] buffer, final int offset, final int end) {
+        final int count = Math.min(fieldNeeded - fieldLength, end - offset);
+        System.arraycopy(buffer, offset, field, fieldLength, count);
+        fieldLength += count;
+        return count;
+    }
+
+    private void expect(final State next, final int size) {
+        if (field.length < size) {
+            field = new byte[size];
+        }
+        state = next;
+        fieldLength = 0;
+        fieldNeeded = size;
+    }
+
+    private void processField() throws ZipException {
+        switch (state) {
+            case SIGNATURE: {
+                final int signature = (int) readLE(0, 4);
+                if (signature == CENTRAL_HEADER_SIGNATURE || signature == END_HEADER_SIGNATURE) {
+                    state = State.DONE;
+                } else if (signature == LOCAL_HEADER_SIGNATURE) {
+                    // Sygnatura pozostaje w buforze jako początek nagłówka.
+                    state = State.LOCAL_HEADER;
+                    fieldNeeded = LOCAL_HEADER_SIZE;
+                } else {
+                    throw new ZipException("Niepoprawna sygnatura nagłówka ZIP");
+                }
+                break;
+            }
+            case LOCAL_HEADER:
+                flags = (int) readLE(6, 2);
+                method = (int) readLE(8, 2);
+                compressedSize = readLE(18, 4);
+                nameLength = (int) readLE(26, 2);
+                expect(State.NAME, nameLength + (int) readLE(28, 2));
+                if (fieldNeeded == 0) {
+                    processField();
+                }
+                break;
+            case NAME:
+                startEntry();
+                break;
+            case DESCRIPTOR_SIGNATURE:
+                if ((int) readLE(0, 4) == DATA_DESCRIPTOR_SIGNATURE) {
+                    expect(State.DESCRIPTOR, zip64 ? 20 : 12);
+                } else {
+                    // Sygnatura deskryptora jest opcjonalna, odczytano już CRC.
+                    expect(State.DESCRIPTOR, zip64 ? 16 : 8);
+                }
+                break;
+            case DESCRIPTOR:
+                expect(State.SIGNATURE, SIGNATURE_SIZE);
+                break;
+            default:
+                throw new IllegalStateException(state.toString());
+        }
+    }
+
+    private void startEntry() throws ZipException {
+        final String name = new String(field, 0, nameLength, StandardCharsets.UTF_8);
+        if ((flags & FLAG_ENCRYPTED) != 0) {
+            throw new ZipException("Zaszyfrowane pliki nie są obsługiwane: " + name);
+        }
+        zip64 = false;
+        for (int i = nameLength; i + 4 <= fieldNeeded;) {
+            final int id = (int) readLE(i, 2);
+            final int size = (int) readLE(i + 2, 2);
+            if (id == ZIP64_EXTRA_ID) {
+                zip64 = true;
+                if (compressedSize == ZIP64_MAGIC && size >= 16) {
+                    // Rozmiar po rozpakowaniu poprzedza rozmiar skompresowany.
+                    compressedSize = readLE(i + 12, 8);
+                }
+            }
+            i += 4 + size;
+        }
+        regular = !name.endsWith("/");
+        if (method == METHOD_STORED) {
+            if ((flags & FLAG_DATA_DESCRIPTOR) != 0) {
+                throw new ZipException("Metoda STORED z deskryptorem danych nie jest obsługiwana: " + name);
+            }
+            state = State.STORED;
+        } else if (method == METHOD_DEFLATED) {
+            inflater.reset();
+            state = State.DEFLATED;
+        } else {
+            throw new ZipException("Nieobsługiwana metoda kompresji " + method + ": " + name);
+        }
+        if (regular) {
+            listener.startEntry(name);
+        }
+        if (state == State.STORED && compressedSize == 0) {
+            endEntry();
+        }
+    }
+
+    private int inflate(final byte[] buffer, final int offset, final int end) throws ZipException {
+        inflater.setInput(buffer, offset, end - offset);
+        try {
+            while (true) {
+                final int count = inflater.inflate(output);
+                if (count > 0 && regular) {
+                    listener.entryData(output, 0, count);
+                }
+                if (inflater.finished()) {
+                    final int consumed = end - inflater.getRemaining();
+                    // ZipOutputStream zapisuje deskryptor ZIP64 dla dużych plików,
+                    // także bez pola ZIP64 w nagłówku lokalnym.
+                    if (inflater.getBytesRead() >= ZIP64_MAGIC
+                            || inflater.getBytesWritten() >= ZIP64_MAGIC) {
+                        zip64 = true;
+                    }
+                    endEntry();
+                    return consumed;
+                }
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("Niepoprawne dane DEFLATE");
+                    }
+                    if (inflater.needsInput()) {
+                        return end;
+                    }
+                }
+            }
+        } catch (DataFormatException ex) {
+            final ZipException zex = new ZipException("Niepoprawne dane DEFLATE");
+            zex.initCause(ex);
+            throw zex;
+        }
+    }
+
+    private void endEntry() {
+        if (regular) {
+            listener.endEntry();
+        }
+        if ((flags & FLAG_DATA_DESCRIPTOR) != 0) {
+            expect(State.DESCRIPTOR_SIGNATURE, SIGNATURE_SIZE);
+        } else {
+            expect(State.SIGNATURE, SIGNATURE_SIZE);
+        }
+    }
+
+    private long readLE(final int offset, final int length) {
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (field[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
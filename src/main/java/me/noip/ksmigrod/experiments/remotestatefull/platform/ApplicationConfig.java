@@ -23,9 +23,12 @@
  */
 package me.noip.ksmigrod.experiments.remotestatefull.platform;
 
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
 import javax.ws.rs.core.Application;
+import me.noip.ksmigrod.experiments.remotestatefull.boundary.ArchiveIngestResource;
+import me.noip.ksmigrod.experiments.remotestatefull.boundary.FileAttachmentExportResource;
 import me.noip.ksmigrod.experiments.remotestatefull.boundary.FileAttachmentResource;
 
 /**
@@ -37,7 +40,10 @@ public class ApplicationConfig extends Application {
 
     @Override
     public Set<Class<?>> getClasses() {
-        return Collections.singleton(FileAttachmentResource.class);
+        return new HashSet<>(Arrays.asList(
+                FileAttachmentResource.class,
+                ArchiveIngestResource.class,
+                FileAttachmentExportResource.class));
     }
     
 }
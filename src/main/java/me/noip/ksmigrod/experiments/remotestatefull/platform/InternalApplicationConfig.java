@@ -0,0 +1,50 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.platform;
+
+import java.util.Collections;
+import java.util.Set;
+import javax.ws.rs.core.Application;
+import me.noip.ksmigrod.experiments.remotestatefull.boundary.FileAttachmentStreamResource;
+
+/**
+ * Zasoby REST warstwy aplikacji, wywoływane przez warstwę webową.
+ *
+ * Zasoby nie mają własnego uwierzytelniania, więc są rejestrowane tylko gdy
+ * właściwość systemowa {@code remotestatefull.upload.streamEndpoint} ma
+ * wartość {@code true}. Należy ją ustawiać wyłącznie w warstwie aplikacji,
+ * niedostępnej spoza sieci wewnętrznej.
+ */
+@javax.ws.rs.ApplicationPath("internal")
+public class InternalApplicationConfig extends Application {
+
+    @Override
+    public Set<Class<?>> getClasses() {
+        if (!Boolean.getBoolean("remotestatefull.upload.streamEndpoint")) {
+            return Collections.emptySet();
+        }
+        return Collections.singleton(FileAttachmentStreamResource.class);
+    }
+    
+}
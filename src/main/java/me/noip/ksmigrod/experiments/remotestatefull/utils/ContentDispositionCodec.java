@@ -0,0 +1,404 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+
+/**
+ * Parser nagłówka Content-Disposition i koder/dekoder RFC5987.
+ *
+ * Wszystkie operacje wykonywane są w jednym przebiegu po znakach wejścia,
+ * z użyciem tablic znaków zamiast wyrażeń regularnych i wyszukiwania
+ * binarnego. Dla poprawnych danych wyniki są takie same jak w
+ * {@link ApiUtils}, natomiast niepoprawne dane powodują zgłoszenie
+ * {@link IllegalArgumentException} zamiast odgadywania ich znaczenia.
+ */
+public class ContentDispositionCodec {
+
+    private static final char[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private static final String UTF_8_PREFIX = "UTF-8''";
+
+    /**
+     * Wartości cyfr szesnastkowych, -1 dla pozostałych znaków ASCII.
+     */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    /**
+     * attr-char z RFC5987.
+     */
+    private static final boolean[] ATTR_CHARS = new boolean[128];
+
+    /**
+     * Znaki tokenu z wyłączeniem separatorów MIME.
+     */
+    private static final boolean[] TOKEN_CHARS = new boolean[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+            ATTR_CHARS['0' + i] = true;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+        for (int i = 0; i < 26; i++) {
+            ATTR_CHARS['a' + i] = true;
+            ATTR_CHARS['A' + i] = true;
+        }
+        for (char c : "!#$&+-.^_`|~".toCharArray()) {
+            ATTR_CHARS[c] = true;
+        }
+        for (char c = 0x21; c < 0x7f; c++) {
+            TOKEN_CHARS[c] = "()<>@,;:\\\"/[]?=".indexOf(c) < 0;
+        }
+    }
+
+    /**
+     * Odczytuje nazwę pliku z nagłówka Content-Disposition.
+     *
+     * Parametr filename* ma pierwszeństwo przed filename.
+     *
+     * @param header Wartość nagłówka, może być null.
+     * @return Nazwa pliku lub null, gdy nagłówek jej nie zawiera.
+     * @throws IllegalArgumentException Niepoprawna składnia nagłówka lub
+     * wartości filename*.
+     */
+    public static String getFileName(final CharSequence header) {
+        if (header == null) {
+            return null;
+        }
+        final int len = header.length();
+        int i = skipWhitespace(header, 0);
+        int end = skipToken(header, i);
+        if (end == i) {
+            throw new IllegalArgumentException("Brak typu w nagłówku Content-Disposition");
+        }
+        i = skipWhitespace(header, end);
+        String fileName = null;
+        CharSequence extendedFileName = null;
+        int extendedStart = 0;
+        int extendedEnd = 0;
+        while (i < len) {
+            if (header.charAt(i) != ';') {
+                throw new IllegalArgumentException("Oczekiwano ';' na pozycji " + i);
+            }
+            i = skipWhitespace(header, i + 1);
+            if (i == len || header.charAt(i) == ';') {
+                continue;
+            }
+            final int nameStart = i;
+            i = skipToken(header, i);
+            if (i == nameStart) {
+                throw new IllegalArgumentException("Oczekiwano nazwy parametru na pozycji " + i);
+            }
+            final boolean plain = equalsIgnoreCase(header, nameStart, i, "filename");
+            final boolean extended = equalsIgnoreCase(header, nameStart, i, "filename*");
+            i = skipWhitespace(header, i);
+            if (i == len || header.charAt(i) != '=') {
+                throw new IllegalArgumentException("Oczekiwano '=' na pozycji " + i);
+            }
+            i = skipWhitespace(header, i + 1);
+            CharSequence value = null;
+            int valueStart = 0;
+            int valueEnd = 0;
+            if (i < len && header.charAt(i) == '"') {
+                final StringBuilder sb = plain || extended ? new StringBuilder() : null;
+                i++;
+                while (true) {
+                    if (i == len) {
+                        throw new IllegalArgumentException("Niezakończony cudzysłów");
+                    }
+                    char c = header.charAt(i++);
+                    if (c == '"') {
+                        break;
+                    }
+                    if (c == '\\') {
+                        if (i == len) {
+                            throw new IllegalArgumentException("Niezakończony cudzysłów");
+                        }
+                        c = header.charAt(i++);
+                    }
+                    if (c < 0x20 && c != '\t' || c == 0x7f) {
+                        throw new IllegalArgumentException("Niedozwolony znak na pozycji " + (i - 1));
+                    }
+                    if (sb != null) {
+                        sb.append(c);
+                    }
+                }
+                value = sb;
+                valueEnd = sb != null ? sb.length() : 0;
+            } else {
+                valueStart = i;
+                i = skipToken(header, i);
+                if (i == valueStart) {
+                    throw new IllegalArgumentException("Brak wartości parametru na pozycji " + i);
+                }
+                value = header;
+                valueEnd = i;
+            }
+            if (plain) {
+                fileName = value.subSequence(valueStart, valueEnd).toString();
+            } else if (extended) {
+                extendedFileName = value;
+                extendedStart = valueStart;
+                extendedEnd = valueEnd;
+            }
+            i = skipWhitespace(header, i);
+        }
+        return extendedFileName != null
+                ? decode(extendedFileName, extendedStart, extendedEnd)
+                : fileName;
+    }
+
+    /**
+     * Koduje nazwę pliku w RFC5987 dla pola filename*
+     *
+     * @param s Nazwa pliku do zakodowania.
+     * @return Zakodowana nazwa pliku.
+     */
+    public static String encodeRFC5987(final CharSequence s) {
+        final int len = s.length();
+        final StringBuilder sb = new StringBuilder(UTF_8_PREFIX.length() + 3 * len);
+        sb.append(UTF_8_PREFIX);
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                appendByte(sb, c);
+            } else if (c < 0x800) {
+                appendByte(sb, 0xc0 | c >> 6);
+                appendByte(sb, 0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                appendByte(sb, 0xf0 | cp >> 18);
+                appendByte(sb, 0x80 | cp >> 12 & 0x3f);
+                appendByte(sb, 0x80 | cp >> 6 & 0x3f);
+                appendByte(sb, 0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // Tak jak String.getBytes: niesparowany surogat zamieniany na '?'.
+                appendByte(sb, '?');
+            } else {
+                appendByte(sb, 0xe0 | c >> 12);
+                appendByte(sb, 0x80 | c >> 6 & 0x3f);
+                appendByte(sb, 0x80 | c & 0x3f);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Odkodowuje nazwę pliku z RFC5987.
+     *
+     * @param s Zakodowana nazwa pliku poprzedzona kodowaniem.
+     * @return Nazwa pliku po odkodowaniu.
+     * @throws IllegalArgumentException Niepoprawna składnia, nieobsługiwane
+     * kodowanie lub bajty niepoprawne w danym kodowaniu.
+     */
+    public static String decodeRFC5987(final CharSequence s) {
+        return decode(s, 0, s.length());
+    }
+
+    private static String decode(final CharSequence s, final int start, final int end) {
+        final int first = indexOf(s, '\'', start, end);
+        if (first <= start || first == end - 1) {
+            throw new IllegalArgumentException("Niepoprawny RFC5987 pierwszy apostrof");
+        }
+        final int second = indexOf(s, '\'', first + 1, end);
+        if (second == -1 || second == end - 1) {
+            throw new IllegalArgumentException("Niepoprawny RFC5987 drugi apostrof");
+        }
+        for (int i = first + 1; i < second; i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x80 || c != '-' && !Character.isLetterOrDigit(c)) {
+                throw new IllegalArgumentException("Niepoprawny RFC5987 język");
+            }
+        }
+        final Charset charset = charset(s, start, first);
+        final boolean utf8 = charset == StandardCharsets.UTF_8;
+        final boolean latin1 = charset == StandardCharsets.ISO_8859_1;
+        final char[] chars = utf8 || latin1 ? new char[end - second - 1] : null;
+        final byte[] bytes = chars == null ? new byte[end - second - 1] : null;
+        int length = 0;
+        int codePoint = 0;
+        int pending = 0;
+        int min = 0;
+        int i = second + 1;
+        while (i < end) {
+            final char c = s.charAt(i);
+            final int b;
+            if (c == '%') {
+                if (i + 2 >= end) {
+                    throw new IllegalArgumentException("Niepoprawny RFC5987 niepełna sekwencja %");
+                }
+                b = hex(s.charAt(i + 1)) << 4 | hex(s.charAt(i + 2));
+                i += 3;
+            } else if (c < 0x80 && ATTR_CHARS[c]) {
+                b = c;
+                i++;
+            } else {
+                throw new IllegalArgumentException("Niepoprawny RFC5987 znak na pozycji " + i);
+            }
+            if (bytes != null) {
+                bytes[length++] = (byte) b;
+            } else if (latin1) {
+                chars[length++] = (char) b;
+            } else if (pending == 0) {
+                if (b < 0x80) {
+                    chars[length++] = (char) b;
+                } else if (b >= 0xc2 && b < 0xe0) {
+                    codePoint = b & 0x1f;
+                    pending = 1;
+                    min = 0x80;
+                } else if (b >= 0xe0 && b < 0xf0) {
+                    codePoint = b & 0x0f;
+                    pending = 2;
+                    min = 0x800;
+                } else if (b >= 0xf0 && b < 0xf5) {
+                    codePoint = b & 0x07;
+                    pending = 3;
+                    min = 0x10000;
+                } else {
+                    throw new IllegalArgumentException("Niepoprawny RFC5987 bajt UTF-8");
+                }
+            } else {
+                if ((b & 0xc0) != 0x80) {
+                    throw new IllegalArgumentException("Niepoprawny RFC5987 bajt UTF-8");
+                }
+                codePoint = codePoint << 6 | b & 0x3f;
+                if (--pending == 0) {
+                    if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                            || codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+                        throw new IllegalArgumentException("Niepoprawny RFC5987 znak UTF-8");
+                    }
+                    length += Character.toChars(codePoint, chars, length);
+                }
+            }
+        }
+        if (pending != 0) {
+            throw new IllegalArgumentException("Niepoprawny RFC5987 niepełny znak UTF-8");
+        }
+        if (bytes == null) {
+            return new String(chars, 0, length);
+        }
+        try {
+            return charset.newDecoder().decode(ByteBuffer.wrap(bytes, 0, length)).toString();
+        } catch (CharacterCodingException ex) {
+            throw new IllegalArgumentException("Niepoprawny RFC5987 bajt w kodowaniu " + charset, ex);
+        }
+    }
+
+    private static Charset charset(final CharSequence s, final int start, final int end) {
+        if (equalsIgnoreCase(s, start, end, "UTF-8")) {
+            return StandardCharsets.UTF_8;
+        }
+        if (equalsIgnoreCase(s, start, end, "ISO-8859-1")) {
+            return StandardCharsets.ISO_8859_1;
+        }
+        try {
+            return Charset.forName(s.subSequence(start, end).toString());
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+            throw new IllegalArgumentException("Nieobsługiwane kodowanie RFC5987", ex);
+        }
+    }
+
+    private static void appendByte(final StringBuilder sb, final int b) {
+        if (b < 0x80 && ATTR_CHARS[b]) {
+            sb.append((char) b);
+        } else {
+            sb.append('%');
+            sb.append(DIGITS[b >>> 4]);
+            sb.append(DIGITS[b & 15]);
+        }
+    }
+
+    private static int hex(final char c) {
+        final int value = c < 0x80 ? HEX_VALUES[c] : -1;
+        if (value == -1) {
+            throw new IllegalArgumentException("Niepoprawny RFC5987 znak szesnastkowy " + c);
+        }
+        return value;
+    }
+
+    private static int indexOf(final CharSequence s, final char c, final int from, final int end) {
+        for (int i = from; i < end; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(final CharSequence s, int i) {
+        while (i < s.length()) {
+            final char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipToken(final CharSequence s, int i) {
+        while (i < s.length()) {
+            final char c = s.charAt(i);
+            if (c >= 0x80 || !TOKEN_CHARS[c]) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean equalsIgnoreCase(final CharSequence s, final int start, final int end,
+            final String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            char e = expected.charAt(i - start);
+            if (e >= 'A' && e <= 'Z') {
+                e += 'a' - 'A';
+            }
+            if (c != e) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Strumieniowy parser treści multipart/form-data.
+ *
+ * Części odczytywane są kolejno, bez buforowania całej treści żądania.
+ * W pamięci trzymany jest jedynie bufor o stałym rozmiarze.
+ */
+public class MultipartStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADERS_SIZE = 8 * 1024;
+    private static final int MAX_BOUNDARY_LENGTH = 70;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int head;
+    private int tail;
+    private boolean lastPart;
+    private PartInputStream current;
+    private Map<String, String> headers = Collections.emptyMap();
+
+    /**
+     * @param in Strumień z treścią żądania.
+     * @param boundary Wartość parametru boundary z nagłówka Content-Type.
+     */
+    public MultipartStream(final InputStream in, final String boundary) {
+        if (boundary == null || boundary.isEmpty() || boundary.length() > MAX_BOUNDARY_LENGTH) {
+            throw new IllegalArgumentException("Niepoprawny boundary: " + boundary);
+        }
+        final byte[] boundaryBytes = boundary.getBytes(StandardCharsets.ISO_8859_1);
+        this.in = in;
+        this.delimiter = new byte[boundaryBytes.length + 4];
+        this.delimiter[0] = '\r';
+        this.delimiter[1] = '\n';
+        this.delimiter[2] = '-';
+        this.delimiter[3] = '-';
+        System.arraycopy(boundaryBytes, 0, this.delimiter, 4, boundaryBytes.length);
+        // Pierwszy ogranicznik nie musi być poprzedzony znakami CRLF.
+        buffer[tail++] = '\r';
+        buffer[tail++] = '\n';
+    }
+
+    /**
+     * Przechodzi do następnej części, pomijając nieodczytane dane bieżącej.
+     *
+     * @return false, gdy osiągnięto ogranicznik zamykający.
+     * @throws IOException Błąd odczytu lub niepoprawna struktura treści.
+     */
+    public boolean nextPart() throws IOException {
+        if (lastPart) {
+            return false;
+        }
+        if (current == null) {
+            // Preambuła.
+            current = new PartInputStream();
+        }
+        while (current.skip(BUFFER_SIZE) > 0) {
+            // Pomijanie nieodczytanych danych.
+        }
+        if (!ensure(2)) {
+            throw new EOFException("Nieoczekiwany koniec treści multipart");
+        }
+        if (buffer[head] == '-' && buffer[head + 1] == '-') {
+            lastPart = true;
+            headers = Collections.emptyMap();
+            return false;
+        }
+        while (ensure(1) && (buffer[head] == ' ' || buffer[head] == '\t')) {
+            head++;
+        }
+        if (!ensure(2) || buffer[head] != '\r' || buffer[head + 1] != '\n') {
+            throw new IOException("Niepoprawny ogranicznik multipart");
+        }
+        head += 2;
+        headers = readHeaders();
+        current = new PartInputStream();
+        return true;
+    }
+
+    /**
+     * @param name Nazwa nagłówka (bez rozróżniania wielkości liter).
+     * @return Wartość nagłówka bieżącej części lub null.
+     */
+    public String getHeader(final String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return Strumień z danymi bieżącej części, kończący się na ogranicznik.
+     */
+    public InputStream getInputStream() {
+        if (current == null || lastPart) {
+            throw new IllegalStateException("Brak bieżącej części");
+        }
+        return current;
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        final Map<String, String> result = new HashMap<>();
+        final byte[] line = new byte[MAX_HEADERS_SIZE];
+        int total = 0;
+        String last = null;
+        while (true) {
+            int length = 0;
+            while (true) {
+                if (!ensure(1)) {
+                    throw new EOFException("Nieoczekiwany koniec nagłówków części multipart");
+                }
+                final byte b = buffer[head++];
+                if (b == '\n') {
+                    break;
+                }
+                if (total++ == MAX_HEADERS_SIZE) {
+                    throw new IOException("Zbyt duże nagłówki części multipart");
+                }
+                line[length++] = b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            if (length == 0) {
+                return result;
+            }
+            final String s = new String(line, 0, length, StandardCharsets.UTF_8);
+            if ((s.charAt(0) == ' ' || s.charAt(0) == '\t') && last != null) {
+                result.put(last, result.get(last) + ' ' + s.trim());
+                continue;
+            }
+            final int colon = s.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Niepoprawny nagłówek części multipart: " + s);
+            }
+            last = s.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            result.put(last, s.substring(colon + 1).trim());
+        }
+    }
+
+    private boolean ensure(final int count) throws IOException {
+        while (tail - head < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            head = 0;
+        }
+        final int bytesRead = in.read(buffer, tail, buffer.length - tail);
+        if (bytesRead == -1) {
+            return false;
+        }
+        tail += bytesRead;
+        return true;
+    }
+
+    private int indexOfDelimiter() {
+        final int last = tail - delimiter.length;
+        outer:
+        for (int i = head; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Liczba bajtów bieżącej części dostępnych w buforze, 0 gdy bufor
+     * zaczyna się od ogranicznika.
+     */
+    private int partBytes() throws IOException {
+        while (true) {
+            final int index = indexOfDelimiter();
+            if (index >= 0) {
+                return index - head;
+            }
+            // Koniec bufora może zawierać początek ogranicznika.
+            final int safe = tail - head - delimiter.length + 1;
+            if (safe > 0) {
+                return safe;
+            }
+            if (!fill()) {
+                throw new EOFException("Nieoczekiwany koniec treści multipart");
+            }
+        }
+    }
+
+    private class PartInputStream extends InputStream {
+
+        private boolean done;
+
+        private int available(final long max) throws IOException {
+            if (done) {
+                return -1;
+            }
+            final int count = partBytes();
+            if (count == 0) {
+                head += delimiter.length;
+                done = true;
+                return -1;
+            }
+            return (int) Math.min(count, max);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return available(1) == -1 ? -1 : buffer[head++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final int count = available(len);
+            if (count > 0) {
+                System.arraycopy(buffer, head, b, off, count);
+                head += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            final int count = available(n);
+            if (count == -1) {
+                return 0;
+            }
+            head += count;
+            return count;
+        }
+    }
+}
@@ -23,22 +23,35 @@
  */
 package me.noip.ksmigrod.experiments.remotestatefull;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.Response.Status.Family;
 import javax.xml.bind.DatatypeConverter;
+import me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestResult;
 import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadBeanRemote;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult;
 import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
 import static org.hamcrest.CoreMatchers.is;
 import org.jboss.arquillian.container.test.api.Deployment;
@@ -67,10 +80,24 @@ public class CheckTest {
     @Deployment(order = 1, name = "app")
     @TargetsContainer("tomee-app")
     public static WebArchive createDeploymentApp() {
-        return ShrinkWrap.create(WebArchive.class)
+        // Fixed name, so that remotestatefull.upload.url is known in advance.
+        return ShrinkWrap.create(WebArchive.class, "app.war")
                 .addClass(me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment.class)
                 .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadBeanRemote.class)
                 .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadBean.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveFormat.class)
+                .addClass("me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveStreamParser")
+                .addClass("me.noip.ksmigrod.experiments.remotestatefull.control.ZipStreamParser")
+                .addClass("me.noip.ksmigrod.experiments.remotestatefull.control.TarStreamParser")
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestResult.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestBeanRemote.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestBean.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentExportBeanRemote.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentExportBean.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.platform.InternalApplicationConfig.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.boundary.FileAttachmentStreamResource.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.utils.ContentDispositionCodec.class)
                 .addAsManifestResource(new ClassLoaderAsset("META-INF/persistence.xml"), "persistence.xml")
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
                 ;
@@ -84,8 +111,18 @@ public class CheckTest {
                 .addClass(me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment.class)
                 .addClass(me.noip.ksmigrod.experiments.remotestatefull.platform.ApplicationConfig.class)
                 .addClass(me.noip.ksmigrod.experiments.remotestatefull.utils.ApiUtils.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.utils.MultipartStream.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.utils.ContentDispositionCodec.class)
                 .addClass(me.noip.ksmigrod.experiments.remotestatefull.boundary.FileAttachmentResource.class)
+                .addClass("me.noip.ksmigrod.experiments.remotestatefull.boundary.FileAttachmentPartUpload")
                 .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadBeanRemote.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.boundary.ArchiveIngestResource.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveFormat.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestResult.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.ArchiveIngestBeanRemote.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.boundary.FileAttachmentExportResource.class)
+                .addClass(me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentExportBeanRemote.class)
                 .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
                 ;
     }
@@ -132,4 +169,218 @@ public class CheckTest {
         FileAttachment readEntity = response.readEntity(FileAttachment.class);
         assertThat("Checksums do not match.", readEntity.getCheckSum(), is(DatatypeConverter.printHexBinary(digest).toUpperCase()));
     }
+
+    @Test
+    @InSequence(3)
+    @RunAsClient
+    @OperateOnDeployment("web")
+    public void multipartUploadViaRest(
+            @ArquillianResteasyResource("rest/files") WebTarget webTarget) throws NoSuchAlgorithmException, IOException {
+        byte []testData = new byte[96*1024];
+        for (int i = 0; i < testData.length; i++) {
+            testData[i] = (byte)(Byte.MIN_VALUE + i % 256);
+        }
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(testData);
+        String boundary = "remotestatefull-boundary";
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            body.write(("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"test" + i + ".multipart\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            body.write(testData);
+            body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        body.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        Response response = webTarget
+                .request(MediaType.APPLICATION_XML_TYPE)
+                .buildPost(Entity.entity(body.toByteArray(),
+                        MediaType.MULTIPART_FORM_DATA + "; boundary=" + boundary))
+                .invoke();
+
+        Status resultStatus = Status.fromStatusCode(response.getStatus());
+        assertThat("Not successful.", resultStatus.getFamily(), is(Family.SUCCESSFUL));
+
+        response.bufferEntity();
+        List<FileAttachmentUploadResult> results
+                = response.readEntity(new GenericType<List<FileAttachmentUploadResult>>() {});
+        assertThat("Part count does not match.", results.size(), is(3));
+        for (FileAttachmentUploadResult result : results) {
+            assertThat("Part not stored.", result.getStatus(), is(FileAttachmentUploadResult.Status.STORED));
+            assertThat("Checksums do not match.", result.getCheckSum(), is(DatatypeConverter.printHexBinary(digest).toUpperCase()));
+        }
+    }
+
+    @Test
+    @InSequence(4)
+    @RunAsClient
+    @OperateOnDeployment("web")
+    public void ingestZipViaRest(
+            @ArquillianResteasyResource("rest/files/ingest") WebTarget webTarget) throws IOException {
+        byte []testData = new byte[96*1024];
+        for (int i = 0; i < testData.length; i++) {
+            testData[i] = (byte)(Byte.MIN_VALUE + i % 256);
+        }
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            for (int i = 0; i < 5; i++) {
+                zip.putNextEntry(new ZipEntry("dir/test" + i + ".zip"));
+                zip.write(testData);
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry(String.format("%070d", 0)));
+            zip.write(testData);
+            zip.closeEntry();
+        }
+        Response response = webTarget
+                .request(MediaType.APPLICATION_XML_TYPE)
+                .buildPost(Entity.entity(archive.toByteArray(), "application/zip"))
+                .invoke();
+
+        Status resultStatus = Status.fromStatusCode(response.getStatus());
+        assertThat("Not successful.", resultStatus.getFamily(), is(Family.SUCCESSFUL));
+
+        response.bufferEntity();
+        ArchiveIngestResult result = response.readEntity(ArchiveIngestResult.class);
+        assertThat("Stored count does not match.", result.getStored(), is(5L));
+        assertThat("Rejected count does not match.", result.getRejected(), is(1L));
+        assertThat("Only rejected entries are listed.", result.getEntries().size(), is(1));
+        assertThat("Entry status does not match.", result.getEntries().get(0).getStatus(),
+                is(FileAttachmentUploadResult.Status.REJECTED));
+    }
+
+    @Test
+    @InSequence(5)
+    @RunAsClient
+    @OperateOnDeployment("web")
+    public void exportZipViaRest(
+            @ArquillianResteasyResource("rest/files") WebTarget webTarget) throws IOException {
+        Response uploadResponse = webTarget
+                .request()
+                .header("Content-Disposition", "attachment; filename=\"test123.export\"")
+                .buildPost(Entity.entity(new byte[]{1, 2, 3}, MediaType.APPLICATION_OCTET_STREAM))
+                .invoke();
+        uploadResponse.bufferEntity();
+        FileAttachment uploaded = uploadResponse.readEntity(FileAttachment.class);
+
+        Response response = webTarget
+                .path("export")
+                .queryParam("ids", uploaded.getId() + ",-1")
+                .queryParam("name", "")
+                .request("application/zip")
+                .buildGet()
+                .invoke();
+
+        Status resultStatus = Status.fromStatusCode(response.getStatus());
+        assertThat("Not successful.", resultStatus.getFamily(), is(Family.SUCCESSFUL));
+        assertThat("Blank name does not fall back to the default.", response.getHeaderString("Content-Disposition"),
+                is("attachment; filename=\"export.zip\"; filename*=UTF-8''export.zip"));
+
+        try (ZipInputStream zip = new ZipInputStream(response.readEntity(InputStream.class))) {
+            ZipEntry entry = zip.getNextEntry();
+            assertThat("Entry name does not match.", entry.getName(), is(uploaded.getId() + "_test123.export"));
+            assertThat("Unexpected entry.", zip.getNextEntry() == null, is(true));
+        }
+    }
+
+    @Test
+    @InSequence(6)
+    @RunAsClient
+    @OperateOnDeployment("app")
+    public void streamUploadToAppTier(@ArquillianResource URL url) throws NoSuchAlgorithmException, URISyntaxException {
+        byte []testData = new byte[96*1024];
+        for (int i = 0; i < testData.length; i++) {
+            testData[i] = (byte)(Byte.MIN_VALUE + i % 256);
+        }
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(testData);
+        Response response = ClientBuilder.newClient()
+                .target(url.toURI())
+                .path("internal/files/stream")
+                .request(MediaType.APPLICATION_XML_TYPE)
+                .header("Content-Disposition", "attachment; filename*=UTF-8''test123.stream")
+                .buildPost(Entity.entity(testData, MediaType.APPLICATION_OCTET_STREAM))
+                .invoke();
+
+        Status resultStatus = Status.fromStatusCode(response.getStatus());
+        assertThat("Not successful.", resultStatus.getFamily(), is(Family.SUCCESSFUL));
+
+        response.bufferEntity();
+        FileAttachment readEntity = response.readEntity(FileAttachment.class);
+        assertThat("File names do not match.", readEntity.getFileName(), is("test123.stream"));
+        assertThat("Checksums do not match.", readEntity.getCheckSum(), is(DatatypeConverter.printHexBinary(digest).toUpperCase()));
+    }
+
+    @Test
+    @InSequence(7)
+    @OperateOnDeployment("web")
+    public void uploadViaRestOverHttp(@ArquillianResource URL url) throws NoSuchAlgorithmException, URISyntaxException {
+        byte []testData = new byte[96*1024];
+        for (int i = 0; i < testData.length; i++) {
+            testData[i] = (byte)(Byte.MIN_VALUE + i % 256);
+        }
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(testData);
+        // Runs inside the web tier, so the transport can be switched for this test only.
+        System.setProperty("remotestatefull.upload.transport", "http");
+        try {
+            System.setProperty("remotestatefull.upload.url", "http://localhost:7080/app/internal/files/stream");
+            Response response = ClientBuilder.newClient()
+                    .target(url.toURI())
+                    .path("rest/files")
+                    .request(MediaType.APPLICATION_XML_TYPE)
+                    .header("Content-Disposition", "attachment; filename=\"test123.http\"")
+                    .buildPost(Entity.entity(testData, MediaType.APPLICATION_OCTET_STREAM))
+                    .invoke();
+
+            Status resultStatus = Status.fromStatusCode(response.getStatus());
+            assertThat("Not successful.", resultStatus.getFamily(), is(Family.SUCCESSFUL));
+
+            response.bufferEntity();
+            FileAttachment readEntity = response.readEntity(FileAttachment.class);
+            assertThat("File names do not match.", readEntity.getFileName(), is("test123.http"));
+            assertThat("Checksums do not match.", readEntity.getCheckSum(), is(DatatypeConverter.printHexBinary(digest).toUpperCase()));
+
+            System.setProperty("remotestatefull.upload.url", "http://localhost:7080/app/internal/files/missing");
+            Response missing = ClientBuilder.newClient()
+                    .target(url.toURI())
+                    .path("rest/files")
+                    .request(MediaType.APPLICATION_XML_TYPE)
+                    .header("Content-Disposition", "attachment; filename=\"test123.http\"")
+                    .buildPost(Entity.entity(testData, MediaType.APPLICATION_OCTET_STREAM))
+                    .invoke();
+            assertThat("Client errors of the app tier are not passed through.", missing.getStatus(), is(404));
+        } finally {
+            System.clearProperty("remotestatefull.upload.transport");
+            System.clearProperty("remotestatefull.upload.url");
+        }
+    }
+
+    @Test
+    @InSequence(8)
+    @RunAsClient
+    @OperateOnDeployment("web")
+    public void ingestTruncatedZipViaRest(
+            @ArquillianResteasyResource("rest/files/ingest") WebTarget webTarget) throws IOException {
+        byte []testData = new byte[96*1024];
+        for (int i = 0; i < testData.length; i++) {
+            testData[i] = (byte)(Byte.MIN_VALUE + i % 256);
+        }
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            for (int i = 0; i < 3; i++) {
+                zip.putNextEntry(new ZipEntry("truncated/test" + i + ".zip"));
+                zip.write(testData);
+                zip.closeEntry();
+            }
+        }
+        byte[] truncated = Arrays.copyOf(archive.toByteArray(), archive.size() / 2);
+        Response response = webTarget
+                .request(MediaType.APPLICATION_XML_TYPE)
+                .buildPost(Entity.entity(truncated, "application/zip"))
+                .invoke();
+
+        assertThat("Truncated archive not rejected.", response.getStatus(), is(422));
+        response.bufferEntity();
+        ArchiveIngestResult result = response.readEntity(ArchiveIngestResult.class);
+        assertThat("Outcome does not match.", result.getOutcome(), is(ArchiveIngestResult.Outcome.INVALID_ARCHIVE));
+        assertThat("Error message missing.", result.getMessage() != null, is(true));
+    }
 }
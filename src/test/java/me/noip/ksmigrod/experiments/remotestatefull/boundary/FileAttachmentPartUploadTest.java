@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.boundary;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadBeanRemote;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult;
+import me.noip.ksmigrod.experiments.remotestatefull.control.FileAttachmentUploadResult.Status;
+import me.noip.ksmigrod.experiments.remotestatefull.entity.FileAttachment;
+import org.junit.After;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Testy przekazywania bloków między wątkiem czytającym żądanie a
+ * {@link FileAttachmentPartUpload}.
+ */
+public class FileAttachmentPartUploadTest {
+
+    static {
+        // Przed załadowaniem FileAttachmentPartUpload.
+        System.setProperty("remotestatefull.upload.handoffTimeout", "1");
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Semaphore permits = new Semaphore(0);
+    private final StubUploadBean bean = new StubUploadBean();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void storesPart() throws Exception {
+        FileAttachmentPartUpload upload = new FileAttachmentPartUpload(bean, "a.txt", permits);
+        Future<FileAttachmentUploadResult> future = executor.submit(upload);
+        upload.write(new byte[10]);
+        upload.write(new byte[5]);
+        upload.end();
+        FileAttachmentUploadResult result = future.get(5, TimeUnit.SECONDS);
+        assertThat(result.getStatus(), is(Status.STORED));
+        assertThat(bean.bytes, is(15));
+        assertThat(bean.aborted, is(false));
+        assertFinished();
+    }
+
+    @Test
+    public void abortsPart() throws Exception {
+        FileAttachmentPartUpload upload = new FileAttachmentPartUpload(bean, "a.txt", permits);
+        Future<FileAttachmentUploadResult> future = executor.submit(upload);
+        upload.write(new byte[10]);
+        upload.abort();
+        assertThat(future.get(5, TimeUnit.SECONDS).getStatus(), is(Status.FAILED));
+        assertThat(bean.aborted, is(true));
+        assertFinished();
+    }
+
+    @Test
+    public void abortDoesNotBlockOnFullQueue() throws Exception {
+        FileAttachmentPartUpload upload = new FileAttachmentPartUpload(bean, "a.txt", permits);
+        // Zadanie nie zostało uruchomione, więc kolejka się zapełnia.
+        for (int i = 0; i < 4; i++) {
+            upload.write(new byte[1]);
+        }
+        upload.abort();
+        Future<FileAttachmentUploadResult> future = executor.submit(upload);
+        assertThat(future.get(5, TimeUnit.SECONDS).getStatus(), is(Status.FAILED));
+        assertThat(bean.aborted, is(true));
+        assertThat(bean.bytes, is(0));
+    }
+
+    @Test
+    public void failsWhenReaderStops() throws Exception {
+        FileAttachmentPartUpload upload = new FileAttachmentPartUpload(bean, "a.txt", permits);
+        Future<FileAttachmentUploadResult> future = executor.submit(upload);
+        upload.write(new byte[10]);
+        // Brak kolejnych bloków i znacznika końca.
+        assertThat(future.get(5, TimeUnit.SECONDS).getStatus(), is(Status.FAILED));
+        assertThat(bean.aborted, is(true));
+        assertFinished();
+        try {
+            upload.write(new byte[10]);
+            fail("Zapis po zakończeniu zadania");
+        } catch (IOException ex) {
+            // Oczekiwany wyjątek.
+        }
+    }
+
+    @Test
+    public void writerFailsWhenTaskNeverRuns() throws Exception {
+        FileAttachmentPartUpload upload = new FileAttachmentPartUpload(bean, "a.txt", permits);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < 5; i++) {
+                upload.write(new byte[1]);
+            }
+            fail("Zapis do pełnej kolejki");
+        } catch (IOException ex) {
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5, is(true));
+        }
+    }
+
+    @Test
+    public void abortsBeanWhenInterrupted() throws Exception {
+        FileAttachmentPartUpload upload = new FileAttachmentPartUpload(bean, "a.txt", permits);
+        Future<FileAttachmentUploadResult> future = executor.submit(upload);
+        upload.write(new byte[10]);
+        executor.shutdownNow();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        assertThat(bean.aborted, is(true));
+        assertThat(future.isDone(), is(true));
+        assertFinished();
+    }
+
+    private void assertFinished() throws InterruptedException {
+        assertThat("Pozwolenie nie zostało zwolnione", permits.tryAcquire(5, TimeUnit.SECONDS), is(true));
+        assertThat(bean.removed, is(true));
+    }
+
+    private static class StubUploadBean implements FileAttachmentUploadBeanRemote {
+
+        volatile int bytes;
+        volatile boolean aborted;
+        volatile boolean removed;
+
+        @Override
+        public void init(String fileName) {
+        }
+
+        @Override
+        public FileAttachment close() {
+            FileAttachment fa = new FileAttachment();
+            fa.setFileName("a.txt");
+            return fa;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+
+        @Override
+        public void remove() {
+            removed = true;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            bytes += length;
+        }
+    }
+}
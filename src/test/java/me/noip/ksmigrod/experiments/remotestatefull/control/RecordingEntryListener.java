@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Zapamiętuje pliki przekazane przez {@link ArchiveStreamParser}.
+ */
+class RecordingEntryListener implements ArchiveStreamParser.EntryListener {
+
+    final List<String> names = new ArrayList<>();
+    final List<byte[]> contents = new ArrayList<>();
+    private ByteArrayOutputStream current;
+
+    @Override
+    public void startEntry(String name) {
+        if (current != null) {
+            throw new AssertionError("startEntry przed endEntry: " + name);
+        }
+        names.add(name);
+        current = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public void entryData(byte[] buffer, int offset, int length) {
+        if (current == null) {
+            throw new AssertionError("entryData poza plikiem");
+        }
+        current.write(buffer, offset, length);
+    }
+
+    @Override
+    public void endEntry() {
+        if (current == null) {
+            throw new AssertionError("endEntry bez startEntry");
+        }
+        contents.add(current.toByteArray());
+        current = null;
+    }
+
+    /**
+     * Przekazuje dane do parsera w blokach po split bajtów.
+     */
+    static void feed(ArchiveStreamParser parser, byte[] data, int length, int split) throws IOException {
+        for (int offset = 0; offset < length; offset += split) {
+            parser.update(data, offset, Math.min(split, length - offset));
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Testy {@link TarStreamParser} przy różnych podziałach danych na bloki.
+ */
+public class TarStreamParserTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int[] SPLITS = {1, 7, 513, 4096, Integer.MAX_VALUE};
+
+    private final Random random = new Random(20181019L);
+
+    @Test
+    public void readsUstarEntries() throws IOException {
+        byte[][] contents = {new byte[0], randomBytes(1), randomBytes(512), randomBytes(513), randomBytes(10000)};
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(header("katalog/", 0, '5', ""));
+        for (int i = 0; i < contents.length; i++) {
+            archive.write(entry("katalog/plik" + i, contents[i], '0', ""));
+        }
+        archive.write(header("dowiazanie", 0, '2', ""));
+        archive.write(entry("plik", contents[1], '0', "bardzo/dlugi/prefiks"));
+        archive.write(entry("stary", contents[2], (char) 0, ""));
+        archive.write(new byte[2 * BLOCK_SIZE]);
+        // Bloki dopełnienia po znaczniku końca archiwum.
+        archive.write(new byte[7 * BLOCK_SIZE]);
+        for (int split : SPLITS) {
+            RecordingEntryListener listener = parse(archive.toByteArray(), split);
+            assertThat(listener.names, is(Arrays.asList("katalog/plik0", "katalog/plik1", "katalog/plik2",
+                    "katalog/plik3", "katalog/plik4", "bardzo/dlugi/prefiks/plik", "stary")));
+            for (int i = 0; i < contents.length; i++) {
+                assertContent(listener.contents.get(i), contents[i], split);
+            }
+            assertContent(listener.contents.get(5), contents[1], split);
+            assertContent(listener.contents.get(6), contents[2], split);
+        }
+    }
+
+    @Test
+    public void readsGnuLongName() throws IOException {
+        String longName = repeat("bardzo-dluga-nazwa/", 20) + "żółć.txt";
+        byte[] content = randomBytes(700);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(entry("././@LongLink", (longName + '\0').getBytes(StandardCharsets.UTF_8), 'L', ""));
+        archive.write(entry(longName.substring(0, 99), content, '0', ""));
+        // Długa nazwa dotyczy tylko następnego nagłówka, także gdy jest to katalog.
+        archive.write(entry("././@LongLink", (longName + "/\0").getBytes(StandardCharsets.UTF_8), 'L', ""));
+        archive.write(header(longName.substring(0, 99), 0, '5', ""));
+        archive.write(entry("krotka", content, '0', ""));
+        archive.write(new byte[2 * BLOCK_SIZE]);
+        for (int split : SPLITS) {
+            RecordingEntryListener listener = parse(archive.toByteArray(), split);
+            assertThat(listener.names, is(Arrays.asList(longName, "krotka")));
+            assertContent(listener.contents.get(0), content, split);
+            assertContent(listener.contents.get(1), content, split);
+        }
+    }
+
+    @Test
+    public void readsPaxPath() throws IOException {
+        String longName = repeat("ścieżka/", 30) + "plik.bin";
+        byte[] content = randomBytes(1500);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(entry("pax_global_header", paxRecords("comment=globalny"), 'g', ""));
+        archive.write(entry("PaxHeaders/plik", paxRecords("mtime=1539936000.5", "path=" + longName,
+                "uname=uzytkownik"), 'x', ""));
+        archive.write(entry("skrocona", content, '0', ""));
+        archive.write(entry("PaxHeaders/inny", paxRecords("mtime=1539936000"), 'x', ""));
+        archive.write(entry("bez-sciezki", content, '0', ""));
+        archive.write(new byte[2 * BLOCK_SIZE]);
+        for (int split : SPLITS) {
+            RecordingEntryListener listener = parse(archive.toByteArray(), split);
+            assertThat(listener.names, is(Arrays.asList(longName, "bez-sciezki")));
+            assertContent(listener.contents.get(0), content, split);
+            assertContent(listener.contents.get(1), content, split);
+        }
+    }
+
+    @Test
+    public void readsBase256Size() throws IOException {
+        byte[] content = randomBytes(600);
+        byte[] block = header("duzy", content.length, '0', "");
+        Arrays.fill(block, 124, 136, (byte) 0);
+        block[124] = (byte) 0x80;
+        block[134] = (byte) (content.length >>> 8);
+        block[135] = (byte) content.length;
+        setCheckSum(block);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(block);
+        archive.write(content);
+        archive.write(new byte[BLOCK_SIZE - content.length % BLOCK_SIZE]);
+        archive.write(new byte[2 * BLOCK_SIZE]);
+        RecordingEntryListener listener = parse(archive.toByteArray(), Integer.MAX_VALUE);
+        assertThat(listener.names, is(Arrays.asList("duzy")));
+        assertContent(listener.contents.get(0), content, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void failsOnTruncatedArchive() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(entry("a", randomBytes(600), '0', ""));
+        archive.write(entry("././@LongLink", "dluga\0".getBytes(StandardCharsets.UTF_8), 'L', ""));
+        archive.write(entry("b", new byte[0], '0', ""));
+        int end = archive.size();
+        archive.write(new byte[2 * BLOCK_SIZE]);
+        byte[] data = archive.toByteArray();
+        // Wymagany jest co najmniej jeden blok zerowy kończący archiwum.
+        for (int length = 0; length < end + BLOCK_SIZE; length++) {
+            for (int split : new int[]{1, 513}) {
+                TarStreamParser parser = new TarStreamParser(new RecordingEntryListener());
+                RecordingEntryListener.feed(parser, data, length, split);
+                try {
+                    parser.finish();
+                    fail("Obcięte archiwum, długość " + length);
+                } catch (EOFException ex) {
+                    // Oczekiwany wyjątek.
+                }
+            }
+        }
+        assertThat(parse(Arrays.copyOf(data, end + BLOCK_SIZE), 513).names, is(Arrays.asList("a", "dluga")));
+    }
+
+    @Test
+    public void rejectsInvalidCheckSum() throws IOException {
+        byte[] block = header("a", 0, '0', "");
+        block[0] = 'b';
+        assertRejected(block);
+    }
+
+    @Test
+    public void rejectsInvalidSize() throws IOException {
+        byte[] block = header("a", 0, '0', "");
+        block[124] = '9';
+        setCheckSum(block);
+        assertRejected(block);
+    }
+
+    @Test
+    public void rejectsOversizedMetadata() throws IOException {
+        assertRejected(header("././@LongLink", 64 * 1024 + 1, 'L', ""));
+    }
+
+    private static void assertRejected(byte[] data) {
+        for (int split : SPLITS) {
+            TarStreamParser parser = new TarStreamParser(new RecordingEntryListener());
+            try {
+                RecordingEntryListener.feed(parser, data, data.length, split);
+                fail("Niepoprawny nagłówek, podział " + split);
+            } catch (IOException ex) {
+                assertThat(ex instanceof EOFException, is(false));
+            }
+        }
+    }
+
+    private static RecordingEntryListener parse(byte[] data, int split) throws IOException {
+        RecordingEntryListener listener = new RecordingEntryListener();
+        TarStreamParser parser = new TarStreamParser(listener);
+        RecordingEntryListener.feed(parser, data, data.length, split);
+        parser.finish();
+        return listener;
+    }
+
+    private static void assertContent(byte[] actual, byte[] expected, int split) {
+        assertThat("Podział " + split, Arrays.equals(actual, expected), is(true));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] entry(String name, byte[] content, char type, String prefix) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header(name, content.length, type, prefix), 0, BLOCK_SIZE);
+        out.write(content, 0, content.length);
+        int padding = (BLOCK_SIZE - content.length % BLOCK_SIZE) % BLOCK_SIZE;
+        out.write(new byte[padding], 0, padding);
+        return out.toByteArray();
+    }
+
+    private static byte[] header(String name, long size, char type, String prefix) {
+        byte[] block = new byte[BLOCK_SIZE];
+        put(block, 0, 100, name);
+        put(block, 100, 8, "0000644");
+        put(block, 108, 8, "0001750");
+        put(block, 116, 8, "0001750");
+        put(block, 124, 12, String.format("%011o", size));
+        put(block, 136, 12, "13354607000");
+        block[156] = (byte) type;
+        put(block, 257, 6, "ustar");
+        put(block, 263, 2, "00");
+        put(block, 345, 155, prefix);
+        setCheckSum(block);
+        return block;
+    }
+
+    private static void setCheckSum(byte[] block) {
+        Arrays.fill(block, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte b : block) {
+            sum += b & 0xff;
+        }
+        put(block, 148, 8, String.format("%06o", sum));
+        block[155] = ' ';
+    }
+
+    private static void put(byte[] block, int offset, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, block, offset, Math.min(bytes.length, length));
+    }
+
+    private static byte[] paxRecords(String... records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String record : records) {
+            int length = record.getBytes(StandardCharsets.UTF_8).length + 2;
+            // Długość rekordu obejmuje własne cyfry.
+            int total = length + Integer.toString(length).length();
+            if (Integer.toString(total).length() != Integer.toString(length).length()) {
+                total++;
+            }
+            byte[] bytes = (total + " " + record + "\n").getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+}
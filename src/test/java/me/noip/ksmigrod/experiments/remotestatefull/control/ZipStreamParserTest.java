@@ -0,0 +1,364 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Testy {@link ZipStreamParser} przy różnych podziałach danych na bloki.
+ */
+public class ZipStreamParserTest {
+
+    private static final int[] SPLITS = {1, 7, 513, 4096, Integer.MAX_VALUE};
+
+    private final Random random = new Random(20181019L);
+
+    @Test
+    public void readsArchiveFromZipOutputStream() throws IOException {
+        byte[][] contents = {new byte[0], new byte[1], randomBytes(100000), new byte[70000], randomBytes(300)};
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("dir/"));
+            zip.closeEntry();
+            for (int i = 0; i < contents.length; i++) {
+                // Pliki DEFLATED z ZipOutputStream mają deskryptory danych.
+                zip.putNextEntry(new ZipEntry("dir/plik" + i));
+                zip.write(contents[i]);
+                zip.closeEntry();
+            }
+            zip.putNextEntry(storedEntry("zapisany", contents[4]));
+            zip.write(contents[4]);
+            zip.closeEntry();
+            zip.putNextEntry(storedEntry("pusty", contents[0]));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("żółć.txt"));
+            zip.write(contents[1]);
+            zip.closeEntry();
+        }
+        byte[] data = archive.toByteArray();
+        for (int split : SPLITS) {
+            RecordingEntryListener listener = parse(data, split);
+            assertThat(listener.names.toString(), is(Arrays.asList("dir/plik0", "dir/plik1", "dir/plik2",
+                    "dir/plik3", "dir/plik4", "zapisany", "pusty", "żółć.txt").toString()));
+            for (int i = 0; i < contents.length; i++) {
+                assertContent(listener.contents.get(i), contents[i], split);
+            }
+            assertContent(listener.contents.get(5), contents[4], split);
+            assertContent(listener.contents.get(6), contents[0], split);
+            assertContent(listener.contents.get(7), contents[1], split);
+        }
+    }
+
+    @Test
+    public void readsDataDescriptorWithoutSignature() throws IOException {
+        byte[] content = randomBytes(5000);
+        byte[] compressed = deflate(content);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(localHeader("a", 1 << 3, 8, 0, 0, new byte[0]));
+        archive.write(compressed);
+        writeLE(archive, crc(content), 4);
+        writeLE(archive, compressed.length, 4);
+        writeLE(archive, content.length, 4);
+        archive.write(localHeader("b", 0, 0, content.length, content.length, new byte[0]));
+        archive.write(content);
+        archive.write(endHeader());
+        for (int split : SPLITS) {
+            RecordingEntryListener listener = parse(archive.toByteArray(), split);
+            assertThat(listener.names, is(Arrays.asList("a", "b")));
+            assertContent(listener.contents.get(0), content, split);
+            assertContent(listener.contents.get(1), content, split);
+        }
+    }
+
+    @Test
+    public void readsZip64Sizes() throws IOException {
+        byte[] content = randomBytes(3000);
+        byte[] compressed = deflate(content);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        // Rozmiary w polu dodatkowym ZIP64, po innym polu dodatkowym.
+        ByteArrayOutputStream extra = new ByteArrayOutputStream();
+        writeLE(extra, 0x5455, 2);
+        writeLE(extra, 5, 2);
+        extra.write(new byte[5]);
+        writeLE(extra, 0x0001, 2);
+        writeLE(extra, 16, 2);
+        writeLE(extra, content.length, 8);
+        writeLE(extra, content.length, 8);
+        archive.write(localHeader("stored64", 0, 0, 0xFFFFFFFFL, 0xFFFFFFFFL, extra.toByteArray()));
+        archive.write(content);
+        // Deskryptor danych ZIP64 z 8-bajtowymi rozmiarami.
+        extra.reset();
+        writeLE(extra, 0x0001, 2);
+        writeLE(extra, 16, 2);
+        extra.write(new byte[16]);
+        archive.write(localHeader("deflated64", 1 << 3, 8, 0, 0, extra.toByteArray()));
+        archive.write(compressed);
+        writeLE(archive, 0x08074b50L, 4);
+        writeLE(archive, crc(content), 4);
+        writeLE(archive, compressed.length, 8);
+        writeLE(archive, content.length, 8);
+        archive.write(endHeader());
+        for (int split : SPLITS) {
+            RecordingEntryListener listener = parse(archive.toByteArray(), split);
+            assertThat(listener.names, is(Arrays.asList("stored64", "deflated64")));
+            assertContent(listener.contents.get(0), content, split);
+            assertContent(listener.contents.get(1), content, split);
+        }
+    }
+
+    @Test
+    public void readsZip64DescriptorWithoutZip64Extra() throws IOException {
+        // Jak ZipOutputStream dla pliku powyżej 4 GiB: nagłówek lokalny bez pola
+        // ZIP64, a deskryptor z 8-bajtowymi rozmiarami. Segmenty zakończone
+        // FULL_FLUSH są niezależne, więc można je powielić.
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(new byte[16 * 1024 * 1024]);
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int count;
+        while ((count = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH)) > 0) {
+            segment.write(buffer, 0, count);
+        }
+        deflater.end();
+        int segments = 257;
+        long size = 16L * 1024 * 1024 * segments;
+        long compressedSize = (long) segment.size() * segments + 2;
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(localHeader("duzy", 1 << 3, 8, 0, 0, new byte[0]));
+        for (int i = 0; i < segments; i++) {
+            segment.writeTo(archive);
+        }
+        // Pusty ostatni blok ze stałymi kodami Huffmana.
+        archive.write(new byte[]{3, 0});
+        writeLE(archive, 0x08074b50L, 4);
+        writeLE(archive, 0, 4);
+        writeLE(archive, compressedSize, 8);
+        writeLE(archive, size, 8);
+        archive.write(localHeader("b", 0, 0, 1, 1, new byte[0]));
+        archive.write(7);
+        archive.write(endHeader());
+        byte[] data = archive.toByteArray();
+        final long[] total = new long[1];
+        RecordingEntryListener listener = new RecordingEntryListener() {
+            @Override
+            public void entryData(byte[] buffer, int offset, int length) {
+                if (names.size() == 1) {
+                    total[0] += length;
+                } else {
+                    super.entryData(buffer, offset, length);
+                }
+            }
+        };
+        ZipStreamParser parser = new ZipStreamParser(listener);
+        try {
+            RecordingEntryListener.feed(parser, data, data.length, 64 * 1024);
+            parser.finish();
+        } finally {
+            parser.release();
+        }
+        assertThat(listener.names, is(Arrays.asList("duzy", "b")));
+        assertThat(total[0], is(size));
+        assertContent(listener.contents.get(1), new byte[]{7}, 64 * 1024);
+    }
+
+    @Test
+    public void failsOnTruncatedArchive() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("a"));
+            zip.write(randomBytes(600));
+            zip.closeEntry();
+            zip.putNextEntry(storedEntry("b", new byte[10]));
+            zip.write(new byte[10]);
+            zip.closeEntry();
+        }
+        byte[] data = archive.toByteArray();
+        // Katalog centralny jest pomijany, więc archiwum musi sięgać jego początku.
+        int centralDirectory = indexOf(data, new byte[]{'P', 'K', 1, 2});
+        for (int length = 0; length < centralDirectory + 4; length++) {
+            for (int split : new int[]{1, 513}) {
+                ZipStreamParser parser = new ZipStreamParser(new RecordingEntryListener());
+                RecordingEntryListener.feed(parser, data, length, split);
+                try {
+                    parser.finish();
+                    fail("Obcięte archiwum, długość " + length);
+                } catch (EOFException ex) {
+                    // Oczekiwany wyjątek.
+                } finally {
+                    parser.release();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsInvalidSignature() throws IOException {
+        assertRejected(new byte[]{'P', 'K', 7, 8, 0, 0, 0, 0});
+    }
+
+    @Test
+    public void rejectsEncryptedEntry() throws IOException {
+        assertRejected(localHeader("a", 1, 0, 0, 0, new byte[0]));
+    }
+
+    @Test
+    public void rejectsUnsupportedMethod() throws IOException {
+        assertRejected(localHeader("a", 0, 12, 0, 0, new byte[0]));
+    }
+
+    @Test
+    public void rejectsStoredEntryWithDataDescriptor() throws IOException {
+        assertRejected(localHeader("a", 1 << 3, 0, 0, 0, new byte[0]));
+    }
+
+    @Test
+    public void rejectsInvalidDeflateData() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(localHeader("a", 1 << 3, 8, 0, 0, new byte[0]));
+        archive.write(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff});
+        assertRejected(archive.toByteArray());
+    }
+
+    private void assertRejected(byte[] data) throws IOException {
+        for (int split : SPLITS) {
+            ZipStreamParser parser = new ZipStreamParser(new RecordingEntryListener());
+            try {
+                RecordingEntryListener.feed(parser, data, data.length, split);
+                fail("Niepoprawne archiwum, podział " + split);
+            } catch (ZipException ex) {
+                // Oczekiwany wyjątek.
+            } finally {
+                parser.release();
+            }
+        }
+    }
+
+    private static RecordingEntryListener parse(byte[] data, int split) throws IOException {
+        RecordingEntryListener listener = new RecordingEntryListener();
+        ZipStreamParser parser = new ZipStreamParser(listener);
+        try {
+            RecordingEntryListener.feed(parser, data, data.length, split);
+            parser.finish();
+        } finally {
+            parser.release();
+        }
+        return listener;
+    }
+
+    private static void assertContent(byte[] actual, byte[] expected, int split) {
+        assertThat("Podział " + split, Arrays.equals(actual, expected), is(true));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static ZipEntry storedEntry(String name, byte[] content) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCrc(crc(content));
+        return entry;
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] localHeader(String name, int flags, int method, long compressedSize,
+            long size, byte[] extra) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeLE(header, 0x04034b50L, 4);
+        writeLE(header, 20, 2);
+        writeLE(header, flags, 2);
+        writeLE(header, method, 2);
+        writeLE(header, 0, 4);
+        writeLE(header, 0, 4);
+        writeLE(header, compressedSize, 4);
+        writeLE(header, size, 4);
+        writeLE(header, nameBytes.length, 2);
+        writeLE(header, extra.length, 2);
+        header.write(nameBytes, 0, nameBytes.length);
+        header.write(extra, 0, extra.length);
+        return header.toByteArray();
+    }
+
+    private static byte[] endHeader() {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeLE(header, 0x06054b50L, 4);
+        header.write(new byte[18], 0, 18);
+        return header.toByteArray();
+    }
+
+    private static void writeLE(ByteArrayOutputStream out, long value, int length) {
+        for (int i = 0; i < length; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import javax.mail.internet.ContentDisposition;
+import javax.mail.internet.ParseException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Testy własności: dla losowych poprawnych danych {@link ContentDispositionCodec}
+ * daje te same wyniki co {@link ApiUtils}, a dane niepoprawne odrzuca.
+ */
+public class ContentDispositionCodecTest {
+
+    private static final int ITERATIONS = 10000;
+
+    private static final String[] SAMPLE_CHARS = {"a", "Z", "0", ".", "-", "_", " ", "%", "'",
+        "\"", "\\", ";", "=", "*", "ą", "ż", "Ł", "é", "ß", "€", "中", "文", "😀",
+        "\u0000", "\u007f", " "};
+
+    private static final String TOKEN_CHARS
+            = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!#$%&'*+-.^_`{|}~";
+
+    private final Random random = new Random(20181017L);
+
+    @Test
+    public void encodeMatchesApiUtils() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            String s = randomString(true);
+            assertThat("Encoding " + s, ContentDispositionCodec.encodeRFC5987(s),
+                    is(ApiUtils.encodeRFC5987(s)));
+        }
+    }
+
+    @Test
+    public void decodeMatchesApiUtils() throws UnsupportedEncodingException {
+        for (int i = 0; i < ITERATIONS; i++) {
+            String s = randomString(false);
+            if (s.isEmpty()) {
+                continue;
+            }
+            String encoded = randomHexCase(ContentDispositionCodec.encodeRFC5987(s));
+            String decoded = ContentDispositionCodec.decodeRFC5987(encoded);
+            assertThat("Round trip " + encoded, decoded, is(s));
+            assertThat("Decoding " + encoded, decoded, is(ApiUtils.decodeRFC5987(encoded)));
+        }
+    }
+
+    @Test
+    public void decodeLatin1MatchesApiUtils() throws UnsupportedEncodingException {
+        for (int i = 0; i < ITERATIONS; i++) {
+            StringBuilder sb = new StringBuilder(random.nextBoolean() ? "ISO-8859-1'" : "iso-8859-1'");
+            sb.append(random.nextBoolean() ? "pl" : "").append('\'');
+            int length = 1 + random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                int b = random.nextInt(256);
+                if (b < 0x80 && Character.isLetterOrDigit(b)) {
+                    sb.append((char) b);
+                } else {
+                    sb.append(String.format(random.nextBoolean() ? "%%%02x" : "%%%02X", b));
+                }
+            }
+            String encoded = sb.toString();
+            assertThat("Decoding " + encoded, ContentDispositionCodec.decodeRFC5987(encoded),
+                    is(ApiUtils.decodeRFC5987(encoded)));
+        }
+    }
+
+    @Test
+    public void fileNameMatchesApiUtils() throws ParseException {
+        for (int i = 0; i < ITERATIONS; i++) {
+            String header = randomHeader();
+            assertThat("Parsing " + header, ContentDispositionCodec.getFileName(header),
+                    is(ApiUtils.getFileNameFromContentDisposition(new ContentDisposition(header))));
+        }
+    }
+
+    @Test
+    public void fileNameOfMissingHeaderIsNull() {
+        assertThat(ContentDispositionCodec.getFileName(null), is(nullValue()));
+        assertThat(ContentDispositionCodec.getFileName("attachment"), is(nullValue()));
+        assertThat(ContentDispositionCodec.getFileName("form-data; name=\"file\";"), is(nullValue()));
+    }
+
+    @Test
+    public void malformedRFC5987IsRejected() {
+        String[] malformed = {"", "UTF-8", "UTF-8'", "UTF-8''", "'en'abc", "UTF-8'en",
+            "UTF-8''a b", "UTF-8''a%", "UTF-8''a%4", "UTF-8''%zz", "UTF-8''ż", "UTF-8''a\"b",
+            "UTF-8''%c3", "UTF-8''%c3%28", "UTF-8''%c0%af", "UTF-8''%ed%a0%80", "UTF-8''%f5%80%80%80",
+            "UTF-8''%ff", "UTF-8'e n'abc", "NO-SUCH-CHARSET''abc", "US-ASCII''%80"};
+        for (String s : malformed) {
+            assertRejected(s);
+        }
+        for (int i = 0; i < ITERATIONS; i++) {
+            String encoded = ContentDispositionCodec.encodeRFC5987(randomString(false) + "x");
+            int position = "UTF-8''".length() + random.nextInt(encoded.length() - "UTF-8''".length() + 1);
+            String invalid = new String[]{" ", "%%", "%g0", "\"", "ą", "\t", "'"}[random.nextInt(7)];
+            String mutated = encoded.substring(0, position) + invalid + encoded.substring(position);
+            assertRejected(mutated);
+        }
+    }
+
+    @Test
+    public void malformedHeaderIsRejected() {
+        String[] malformed = {"", " ", ";", "attachment; filename", "attachment; filename=",
+            "attachment; filename=\"abc", "attachment; filename=\"abc\\", "attachment filename=abc",
+            "attachment; =abc", "attachment; filename=a b", "attachment; filename=\"a\u0001b\"",
+            "attachment; filename*=UTF-8''a%"};
+        for (String header : malformed) {
+            try {
+                ContentDispositionCodec.getFileName(header);
+                fail("Accepted " + header);
+            } catch (IllegalArgumentException ex) {
+                // Oczekiwany wyjątek.
+            }
+        }
+    }
+
+    private void assertRejected(String s) {
+        try {
+            ContentDispositionCodec.decodeRFC5987(s);
+            fail("Accepted " + s);
+        } catch (IllegalArgumentException ex) {
+            // Oczekiwany wyjątek.
+        }
+    }
+
+    private String randomString(boolean allowUnpairedSurrogates) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(30);
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                sb.append(SAMPLE_CHARS[random.nextInt(SAMPLE_CHARS.length)]);
+            } else if (kind < 8) {
+                sb.append((char) random.nextInt(0x80));
+            } else if (kind < 9) {
+                sb.appendCodePoint(random.nextInt(Character.MAX_CODE_POINT + 1));
+            } else {
+                sb.append((char) random.nextInt(Character.MAX_VALUE + 1));
+            }
+        }
+        String s = sb.toString();
+        if (!allowUnpairedSurrogates && !s.equals(new String(s.getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8))) {
+            return randomString(false);
+        }
+        return s;
+    }
+
+    private String randomHexCase(String encoded) {
+        StringBuilder sb = new StringBuilder(encoded);
+        for (int i = "UTF-8''".length(); i < sb.length(); i++) {
+            if (sb.charAt(i) == '%' && random.nextBoolean()) {
+                sb.setCharAt(i + 1, Character.toUpperCase(sb.charAt(i + 1)));
+                sb.setCharAt(i + 2, Character.toUpperCase(sb.charAt(i + 2)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private String randomHeader() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(new String[]{"attachment", "inline", "form-data", "Attachment"}[random.nextInt(4)]);
+        boolean plain = random.nextBoolean();
+        boolean extended = random.nextBoolean();
+        if (random.nextBoolean()) {
+            appendParameter(sb, "name", randomQuotedOrToken());
+        }
+        if (plain) {
+            appendParameter(sb, random.nextBoolean() ? "filename" : "FileName", randomQuotedOrToken());
+        }
+        if (random.nextBoolean()) {
+            appendParameter(sb, "size", Integer.toString(random.nextInt(100000)));
+        }
+        if (extended) {
+            String s = randomString(false) + "x";
+            appendParameter(sb, "filename*", randomHexCase(ContentDispositionCodec.encodeRFC5987(s)));
+        }
+        return sb.toString();
+    }
+
+    private void appendParameter(StringBuilder sb, String name, String value) {
+        sb.append(randomWhitespace()).append(';').append(randomWhitespace())
+                .append(name).append('=').append(value);
+    }
+
+    private String randomWhitespace() {
+        return new String[]{"", "", " ", "  ", "\t"}[random.nextInt(5)];
+    }
+
+    private String randomQuotedOrToken() {
+        int length = 1 + random.nextInt(20);
+        StringBuilder sb = new StringBuilder();
+        if (random.nextBoolean()) {
+            for (int i = 0; i < length; i++) {
+                sb.append(TOKEN_CHARS.charAt(random.nextInt(TOKEN_CHARS.length())));
+            }
+            return sb.toString();
+        }
+        sb.append('"');
+        for (int i = 0; i < length; i++) {
+            char c = (char) (0x20 + random.nextInt(0x5f));
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
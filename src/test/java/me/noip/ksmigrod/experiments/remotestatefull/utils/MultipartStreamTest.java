@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Krzysztof Śmigrodzki <Krzysztof.Smigrodzki@mf.gov.pl>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.noip.ksmigrod.experiments.remotestatefull.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Testy {@link MultipartStream}, także przy odczycie treści w małych
+ * fragmentach, gdy ogranicznik jest dzielony między kolejne odczyty.
+ */
+public class MultipartStreamTest {
+
+    private static final String BOUNDARY = "----b0undary";
+
+    private static final int[] SPLITS = {1, 2, 7, 13, 70, 513, 4096, 65536, Integer.MAX_VALUE};
+
+    @Test
+    public void readsPartsWithPreambleAndEpilogue() throws IOException {
+        byte[] body = ascii("preambuła\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"pole\"\r\n"
+                + "\r\n"
+                + "wartość\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "content-disposition: form-data; name=\"plik\"; filename=\"a.txt\"\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "\r\n"
+                + "abc\r\n--" + BOUNDARY.substring(0, 5) + "\r\n"
+                + "--" + BOUNDARY + "--\r\n"
+                + "epilog\r\n");
+        for (int split : SPLITS) {
+            MultipartStream multipart = new MultipartStream(new SplitInputStream(body, split), BOUNDARY);
+            assertThat(multipart.nextPart(), is(true));
+            assertThat(multipart.getHeader("CONTENT-DISPOSITION"), is("form-data; name=\"pole\""));
+            assertThat(read(multipart.getInputStream()), is(ascii("wartość")));
+            assertThat(multipart.nextPart(), is(true));
+            assertThat(multipart.getHeader("Content-Disposition"),
+                    is("form-data; name=\"plik\"; filename=\"a.txt\""));
+            assertThat(multipart.getHeader("Content-Type"), is("text/plain"));
+            assertThat(multipart.getHeader("Content-Length"), is(nullValue()));
+            assertThat("split " + split, read(multipart.getInputStream()),
+                    is(ascii("abc\r\n--" + BOUNDARY.substring(0, 5))));
+            assertThat(multipart.nextPart(), is(false));
+            assertThat(multipart.nextPart(), is(false));
+        }
+    }
+
+    @Test
+    public void readsBinaryPartsAcrossSplits() throws IOException {
+        Random random = new Random(20181019L);
+        List<byte[]> parts = new ArrayList<>();
+        for (int size : new int[]{0, 1, 69, 70, 71, 64 * 1024 - 1, 64 * 1024, 64 * 1024 + 1, 200000}) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            // Fragmenty podobne do ogranicznika wewnątrz danych.
+            for (int i = 0; i + 20 < size; i += 997) {
+                System.arraycopy(ascii("\r\n--" + BOUNDARY), 0, data, i, 4 + random.nextInt(BOUNDARY.length()));
+            }
+            parts.add(data);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < parts.size(); i++) {
+            body.write(ascii("--" + BOUNDARY + " \t\r\nContent-Disposition: form-data; name=\"p" + i + "\"\r\n\r\n"));
+            body.write(parts.get(i));
+            body.write(ascii("\r\n"));
+        }
+        body.write(ascii("--" + BOUNDARY + "--"));
+        for (int split : SPLITS) {
+            MultipartStream multipart = new MultipartStream(
+                    new SplitInputStream(body.toByteArray(), split), BOUNDARY);
+            for (int i = 0; i < parts.size(); i++) {
+                assertThat(multipart.nextPart(), is(true));
+                assertThat(multipart.getHeader("content-disposition"), is("form-data; name=\"p" + i + "\""));
+                assertThat("split " + split + ", part " + i,
+                        Arrays.equals(read(multipart.getInputStream()), parts.get(i)), is(true));
+            }
+            assertThat(multipart.nextPart(), is(false));
+        }
+    }
+
+    @Test
+    public void skipsUnreadParts() throws IOException {
+        byte[] body = ascii("--" + BOUNDARY + "\r\nA: 1\r\n\r\n" + repeat('x', 100000) + "\r\n"
+                + "--" + BOUNDARY + "\r\nA: 2\r\n\r\nbbb\r\n"
+                + "--" + BOUNDARY + "--");
+        for (int split : SPLITS) {
+            MultipartStream multipart = new MultipartStream(new SplitInputStream(body, split), BOUNDARY);
+            assertThat(multipart.nextPart(), is(true));
+            multipart.getInputStream().read();
+            assertThat(multipart.nextPart(), is(true));
+            assertThat(multipart.getHeader("a"), is("2"));
+            assertThat(read(multipart.getInputStream()), is(ascii("bbb")));
+            assertThat(multipart.nextPart(), is(false));
+        }
+    }
+
+    @Test
+    public void foldsContinuationLines() throws IOException {
+        byte[] body = ascii("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data;\r\n\tname=\"x\"\r\n\r\n\r\n"
+                + "--" + BOUNDARY + "--");
+        MultipartStream multipart = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+        assertThat(multipart.nextPart(), is(true));
+        assertThat(multipart.getHeader("Content-Disposition"), is("form-data; name=\"x\""));
+        assertThat(read(multipart.getInputStream()).length, is(0));
+        assertThat(multipart.nextPart(), is(false));
+    }
+
+    @Test
+    public void rejectsOversizedHeaders() throws IOException {
+        byte[] body = ascii("--" + BOUNDARY + "\r\nX: " + repeat('h', 8 * 1024) + "\r\n\r\n\r\n"
+                + "--" + BOUNDARY + "--");
+        MultipartStream multipart = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+        try {
+            multipart.nextPart();
+            fail("Zbyt duże nagłówki");
+        } catch (IOException ex) {
+            assertThat(ex instanceof EOFException, is(false));
+        }
+    }
+
+    @Test
+    public void rejectsMalformedHeader() throws IOException {
+        byte[] body = ascii("--" + BOUNDARY + "\r\nbez dwukropka\r\n\r\n\r\n--" + BOUNDARY + "--");
+        MultipartStream multipart = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+        try {
+            multipart.nextPart();
+            fail("Niepoprawny nagłówek");
+        } catch (IOException ex) {
+            // Oczekiwany wyjątek.
+        }
+    }
+
+    @Test
+    public void rejectsMalformedDelimiterLine() throws IOException {
+        byte[] body = ascii("--" + BOUNDARY + "x\r\nA: 1\r\n\r\n\r\n--" + BOUNDARY + "--");
+        MultipartStream multipart = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+        try {
+            multipart.nextPart();
+            fail("Niepoprawny ogranicznik");
+        } catch (IOException ex) {
+            // Oczekiwany wyjątek.
+        }
+    }
+
+    @Test
+    public void failsOnTruncatedBody() throws IOException {
+        String complete = "--" + BOUNDARY + "\r\nA: 1\r\n\r\ndane\r\n--" + BOUNDARY + "--";
+        for (int length = 0; length < complete.length() - 1; length++) {
+            MultipartStream multipart = new MultipartStream(
+                    new ByteArrayInputStream(ascii(complete.substring(0, length))), BOUNDARY);
+            try {
+                while (multipart.nextPart()) {
+                    read(multipart.getInputStream());
+                }
+                fail("Obcięta treść, długość " + length);
+            } catch (EOFException ex) {
+                // Oczekiwany wyjątek.
+            }
+        }
+    }
+
+    @Test
+    public void rejectsInvalidBoundary() {
+        for (String boundary : new String[]{null, "", repeat('b', 71)}) {
+            try {
+                new MultipartStream(new ByteArrayInputStream(new byte[0]), boundary);
+                fail("Boundary " + boundary);
+            } catch (IllegalArgumentException ex) {
+                // Oczekiwany wyjątek.
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noInputStreamAfterLastPart() throws IOException {
+        MultipartStream multipart = new MultipartStream(
+                new ByteArrayInputStream(ascii("--" + BOUNDARY + "--")), BOUNDARY);
+        assertThat(multipart.nextPart(), is(false));
+        multipart.getInputStream();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3000];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * Zwraca najwyżej split bajtów w każdym odczycie.
+     */
+    static class SplitInputStream extends FilterInputStream {
+
+        private final int split;
+
+        SplitInputStream(byte[] data, int split) {
+            super(new ByteArrayInputStream(data));
+            this.split = split;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, split));
+        }
+    }
+}